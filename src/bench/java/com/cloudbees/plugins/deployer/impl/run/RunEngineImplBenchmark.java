@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+import hudson.util.NullStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-deployment string handling and the per-chunk upload progress callback in
+ * {@link RunEngineImpl}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RunEngineImplBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Descriptions {
+
+        @Param({"ascii", "accented"})
+        public String kind;
+
+        String description;
+
+        @Setup
+        public void setUp() {
+            description = "ascii".equals(kind)
+                    ? "translate-puzzle-webapp #1234 deployed from master at 2014-05-12 10:15"
+                    : "traduction-énigme-webapp #1234 déployée depuis maître à 2014-05-12 10:15 — Ünïcödé";
+        }
+    }
+
+    /**
+     * A 100 MB upload reported in 8 KB chunks, the buffer size of the multipart request entity, so that each
+     * invocation is one callback and the reports fall at their usual rate among them.
+     */
+    @State(Scope.Thread)
+    public static class Upload {
+
+        static final long LENGTH = 100L * 1024 * 1024;
+
+        static final int CHUNK = 8 * 1024;
+
+        long written;
+
+        RunEngineImpl.ConsoleListenerUploadProgress progress;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            BuildListener listener = new StreamBuildListener(new NullStream());
+            progress = new RunEngineImpl.ConsoleListenerUploadProgress(listener, LENGTH);
+            written = 0;
+        }
+
+        long next() {
+            written += CHUNK;
+            if (written > LENGTH) {
+                // start a new upload, as a retry would
+                progress.reset();
+                written = CHUNK;
+            }
+            return written;
+        }
+    }
+
+    @Benchmark
+    public String toUsAscii(Descriptions state) {
+        return RunEngineImpl.toUsAscii(state.description);
+    }
+
+    @Benchmark
+    public void handleBytesWritten(Upload state) {
+        state.progress.handleBytesWritten(Upload.CHUNK, state.next(), Upload.LENGTH);
+    }
+}
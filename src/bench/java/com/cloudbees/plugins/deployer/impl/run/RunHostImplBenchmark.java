@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import hudson.Util;
+import hudson.maven.reporters.MavenArtifact;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the default target creation in {@link RunHostImpl.DescriptorImpl}, which runs whenever a deploy now
+ * form is rendered, over synthetic Maven module builds and archived artifact directories.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RunHostImplBenchmark {
+
+    /**
+     * The modules of a reactor build where, as usual, only the last few modules produce a war.
+     */
+    @State(Scope.Benchmark)
+    public static class Modules {
+
+        @Param({"10", "100", "1000"})
+        public int count;
+
+        final List<MavenArtifact> mainArtifacts = new ArrayList<MavenArtifact>();
+
+        final List<List<MavenArtifact>> attachedArtifacts = new ArrayList<List<MavenArtifact>>();
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < count; i++) {
+                String type = i >= count - 3 ? "war" : "jar";
+                String artifactId = "module-" + i;
+                mainArtifacts.add(new MavenArtifact("com.example", artifactId, "1.0-SNAPSHOT", null, type,
+                        artifactId + "-1.0-SNAPSHOT." + type, null));
+                List<MavenArtifact> attached = new ArrayList<MavenArtifact>();
+                attached.add(new MavenArtifact("com.example", artifactId, "1.0-SNAPSHOT", "sources", "jar",
+                        artifactId + "-1.0-SNAPSHOT-sources.jar", null));
+                attached.add(new MavenArtifact("com.example", artifactId, "1.0-SNAPSHOT", "javadoc", "jar",
+                        artifactId + "-1.0-SNAPSHOT-javadoc.jar", null));
+                attachedArtifacts.add(attached);
+            }
+        }
+    }
+
+    /**
+     * The archived artifacts of a freestyle build, spread over nested directories with a war in every tenth one.
+     */
+    @State(Scope.Benchmark)
+    public static class Artifacts {
+
+        @Param({"100", "1000", "10000"})
+        public int count;
+
+        File dir;
+
+        @Setup
+        public void setUp() throws IOException {
+            dir = Util.createTempDir();
+            for (int i = 0; i < count; i++) {
+                File parent = new File(dir, "module-" + (i / 10) + "/target");
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Could not create " + parent);
+                }
+                File file = new File(parent, "artifact-" + i + (i % 100 == 99 ? ".war" : ".jar"));
+                if (!file.createNewFile()) {
+                    throw new IOException("Could not create " + file);
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    @Benchmark
+    public List<RunTargetImpl> mavenModules(Modules state) {
+        List<RunTargetImpl> result = new ArrayList<RunTargetImpl>();
+        for (int i = 0; i < state.count; i++) {
+            RunHostImpl.DescriptorImpl.addArtifactTargets(result, state.mainArtifacts.get(i),
+                    state.attachedArtifacts.get(i));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<RunTargetImpl> archivedArtifacts(Artifacts state) {
+        List<RunTargetImpl> result = new ArrayList<RunTargetImpl>();
+        RunHostImpl.DescriptorImpl.addArchivedTargets(result, state.dir);
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.api.BeesClient;
+import com.cloudbees.plugins.credentials.cloudbees.AbstractCloudBeesAccount;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import com.cloudbees.plugins.deployer.sources.WildcardPathDeploySource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link RunTargetImpl} configuration maps and of reading the application regions and API
+ * end-points of accounts with many applications.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RunTargetImplBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Target {
+
+        @Param({"10", "100"})
+        public int settings;
+
+        RunTargetImpl target;
+
+        @Setup
+        public void setUp() {
+            RunTargetImpl.Setting[] config = new RunTargetImpl.Setting[settings];
+            for (int i = 0; i < settings; i++) {
+                config[i] = new RunTargetImpl.Setting(" setting." + i + " ", "value-" + i);
+            }
+            target = new RunTargetImpl(null, "test-app", null, null, config, new WildcardPathDeploySource("*.war"),
+                    false, "tomcat7", config, config, false, null);
+        }
+    }
+
+    /**
+     * An account whose API responses are served from memory, so only the parsing is measured.
+     */
+    @State(Scope.Benchmark)
+    public static class Account {
+
+        @Param({"100", "1000", "5000"})
+        public int applications;
+
+        BeesClient client;
+
+        CloudBeesAccount account;
+
+        @Setup
+        public void setUp() throws Exception {
+            final String resources = resourceList(applications);
+            final String subscription = subscriptionInfo(applications);
+            client = new BeesClient("http://localhost", "key", "secret", "xml", "1.0") {
+                @Override
+                public String executeRequest(String url) throws Exception {
+                    return url.contains("service.subscription.info") ? subscription : resources;
+                }
+            };
+            account = new AbstractCloudBeesAccount() {
+                public String getName() {
+                    return "bench";
+                }
+
+                public String getDisplayName() {
+                    return "Benchmark Account";
+                }
+            };
+            // the callables swallow failures, make sure that the fixtures are actually being parsed
+            int regions = new RunTargetImpl.DescriptorImpl.AccountRegionsCallable(client, account).call().size();
+            if (regions != applications) {
+                throw new IllegalStateException("Expected " + applications + " applications, got " + regions);
+            }
+            int endpoints = new RunTargetImpl.DescriptorImpl.AccountEndpointsCallable(client, account).call().size();
+            if (endpoints != 3) {
+                throw new IllegalStateException("Expected 3 end-points, got " + endpoints);
+            }
+        }
+
+        private static String resourceList(int applications) {
+            StringBuilder xml = new StringBuilder("<ServiceResourceListResponse><resources>");
+            for (int i = 0; i < applications; i++) {
+                xml.append("<ServiceResourceInfo><service>cb-app</service><id>bench/app-").append(i)
+                        .append("</id><resourceType>application</resourceType><config><entry><string>region")
+                        .append("</string><string>").append(i % 2 == 0 ? "us" : "eu")
+                        .append("</string></entry></config></ServiceResourceInfo>");
+            }
+            return xml.append("</resources></ServiceResourceListResponse>").toString();
+        }
+
+        private static String subscriptionInfo(int applications) {
+            StringBuilder xml = new StringBuilder("<ServiceSubscriptionInfo><service>cb-app</service>"
+                    + "<account>bench</account><settings>");
+            appendSetting(xml, "dc.eu", "enabled");
+            appendSetting(xml, "dc.eu.api.url", "https://api-eu.example.com/api");
+            appendSetting(xml, "dc.ap", "true");
+            appendSetting(xml, "dc.ap.api.url", "https://api-ap.example.com/api");
+            appendSetting(xml, "dc.sa", "disabled");
+            for (int i = 0; i < applications; i++) {
+                // per application settings are returned along with the data centre settings
+                appendSetting(xml, "app.app-" + i + ".quota", Integer.toString(i));
+            }
+            return xml.append("</settings></ServiceSubscriptionInfo>").toString();
+        }
+
+        private static void appendSetting(StringBuilder xml, String key, String value) {
+            xml.append("<entry><string>").append(key).append("</string><string>").append(value)
+                    .append("</string></entry>");
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> applicationConfigMap(Target state) {
+        return state.target.getApplicationConfigMap();
+    }
+
+    @Benchmark
+    public Map<String, String> clickStackConfigMap(Target state) {
+        return state.target.getClickStackConfigMap();
+    }
+
+    @Benchmark
+    public Map<String, String> clickStackRuntimeConfigMap(Target state) {
+        return state.target.getClickstackConfigMap();
+    }
+
+    @Benchmark
+    public Map<String, String> accountRegions(Account state) throws Exception {
+        return new RunTargetImpl.DescriptorImpl.AccountRegionsCallable(state.client, state.account).call();
+    }
+
+    @Benchmark
+    public Map<String, String> accountEndpoints(Account state) throws Exception {
+        return new RunTargetImpl.DescriptorImpl.AccountEndpointsCallable(state.client, state.account).call();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.deployer.NamedThreadFactory;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the account queries behind the RUN@cloud configuration page. Queries are striped by account over several small
+ * pools, so a slow account only holds up the accounts that share its stripe, and each stripe has a bounded queue.
+ * When a stripe is saturated the query runs on a small overflow pool without a queue, so the request that waits for it
+ * still times out when it should. When the overflow pool is busy too the query fails at once rather than queue up.
+ *
+ * @since 6.1
+ */
+final class AccountQueryExecutor {
+
+    /**
+     * The number of stripes.
+     */
+    private static final int STRIPES = Integer.getInteger(AccountQueryExecutor.class.getName() + ".STRIPES", 4);
+
+    /**
+     * The number of threads of each stripe.
+     */
+    private static final int THREADS = Integer.getInteger(AccountQueryExecutor.class.getName() + ".THREADS", 2);
+
+    /**
+     * The number of queries that may wait in each stripe.
+     */
+    private static final int QUEUE_SIZE = Integer.getInteger(AccountQueryExecutor.class.getName() + ".QUEUE_SIZE",
+            16);
+
+    /**
+     * The number of threads that run the queries that did not fit in their stripe.
+     */
+    private static final int OVERFLOW_THREADS =
+            Integer.getInteger(AccountQueryExecutor.class.getName() + ".OVERFLOW_THREADS", 4);
+
+    private static final AccountQueryExecutor INSTANCE =
+            new AccountQueryExecutor(STRIPES, THREADS, QUEUE_SIZE, OVERFLOW_THREADS);
+
+    @NonNull
+    private final ThreadPoolExecutor[] stripes;
+
+    @NonNull
+    private final ThreadPoolExecutor overflow;
+
+    /**
+     * How long queries waited before they started, in milliseconds.
+     */
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    private final StripedCounter rejections = new StripedCounter();
+
+    AccountQueryExecutor(int stripes, int threads, int queueSize, int overflowThreads) {
+        this.stripes = new ThreadPoolExecutor[Math.max(1, stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            // core and maximum sizes are the same as a pool only grows past its core size once the queue is full
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+                    60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                    new NamedThreadFactory("RunTargetImpl:UI-Queries-" + i,
+                            new ExceptionCatchingThreadFactory(new DaemonThreadFactory())));
+            executor.allowCoreThreadTimeOut(true);
+            this.stripes[i] = executor;
+        }
+        this.overflow = new ThreadPoolExecutor(0, Math.max(1, overflowThreads), 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new NamedThreadFactory("RunTargetImpl:UI-Queries-Overflow",
+                        new ExceptionCatchingThreadFactory(new DaemonThreadFactory())));
+    }
+
+    @NonNull
+    static AccountQueryExecutor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Submits a query.
+     *
+     * @param account the account that the query is for.
+     * @param query   the query.
+     * @param <V>     the type of result.
+     * @return the result of the query.
+     */
+    @NonNull
+    <V> Future<V> submit(@NonNull String account, @NonNull final Callable<V> query) {
+        final long submitted = System.nanoTime();
+        Callable<V> timed = new Callable<V>() {
+            public V call() throws Exception {
+                waitTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted));
+                return query.call();
+            }
+        };
+        try {
+            return stripes[stripeOf(account)].submit(timed);
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+        }
+        try {
+            return overflow.submit(timed);
+        } catch (final RejectedExecutionException e) {
+            // fail now, the caller does not cache a failed query
+            FutureTask<V> failed = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    throw e;
+                }
+            });
+            failed.run();
+            return failed;
+        }
+    }
+
+    int stripeOf(@NonNull String account) {
+        return (account.hashCode() & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    /**
+     * Returns the number of queries waiting for a thread.
+     *
+     * @return the number of queries waiting for a thread.
+     */
+    long getQueueDepth() {
+        long depth = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            depth += stripe.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of queries running.
+     *
+     * @return the number of queries running.
+     */
+    long getActiveCount() {
+        long count = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            count += stripe.getActiveCount();
+        }
+        return count;
+    }
+
+    @NonNull
+    LatencyHistogram.Snapshot getWaitTime() {
+        return waitTime.snapshot();
+    }
+
+    long getRejectionCount() {
+        return rejections.get();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Action;
+import hudson.model.Run;
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the outcome of RUN@cloud deployments whose activation completed after the build had moved on, see
+ * {@link RunEngineImpl#ASYNC_ACTIVATION}.
+ *
+ * @since 6.1
+ */
+public class ActivationStatusAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(ActivationStatusAction.class.getName());
+
+    /**
+     * The status of each application, guarded by itself.
+     */
+    private final Map<String, Status> statuses = new LinkedHashMap<String, Status>();
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDisplayName() {
+        return Messages.ActivationStatusAction_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Returns the status of each application in the order that they were deployed.
+     *
+     * @return the status of each application in the order that they were deployed.
+     */
+    @NonNull
+    public List<Status> getStatuses() {
+        synchronized (statuses) {
+            return new ArrayList<Status>(statuses.values());
+        }
+    }
+
+    /**
+     * Returns {@code true} while any application is still activating.
+     *
+     * @return {@code true} while any application is still activating.
+     */
+    public boolean isActivating() {
+        for (Status status : getStatuses()) {
+            if (status.getState() == State.ACTIVATING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update(@NonNull Status status) {
+        synchronized (statuses) {
+            Status current = statuses.get(status.getApplicationId());
+            // the final state can overtake the activating state on the way back from the agent
+            if (current == null || current.getState() == State.ACTIVATING) {
+                statuses.put(status.getApplicationId(), status);
+            }
+        }
+    }
+
+    /**
+     * The states of an activation.
+     */
+    public enum State {
+        ACTIVATING,
+        ACTIVE,
+        FAILED
+    }
+
+    /**
+     * The status of the activation of one application.
+     */
+    @Immutable
+    public static final class Status implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final String applicationId;
+
+        @NonNull
+        private final State state;
+
+        @CheckForNull
+        private final String message;
+
+        private final long timestamp;
+
+        public Status(@NonNull String applicationId, @NonNull State state, @CheckForNull String message) {
+            this.applicationId = applicationId;
+            this.state = state;
+            this.message = message;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        @NonNull
+        public String getApplicationId() {
+            return applicationId;
+        }
+
+        @NonNull
+        public State getState() {
+            return state;
+        }
+
+        @CheckForNull
+        public String getMessage() {
+            return message;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @NonNull
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+    }
+
+    /**
+     * Updates the status of an application in a build on the master when invoked from an agent.
+     */
+    static final class RecordCallable implements hudson.remoting.Callable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String buildId;
+
+        private final Status status;
+
+        RecordCallable(String buildId, Status status) {
+            this.buildId = buildId;
+            this.status = status;
+        }
+
+        public Void call() throws IOException {
+            Run<?, ?> run = Run.fromExternalizableId(buildId);
+            if (run == null) {
+                LOGGER.log(Level.FINE, "Build {0} no longer exists, discarding activation status", buildId);
+                return null;
+            }
+            ActivationStatusAction action;
+            synchronized (run) {
+                action = run.getAction(ActivationStatusAction.class);
+                if (action == null) {
+                    action = new ActivationStatusAction();
+                    run.addAction(action);
+                }
+            }
+            action.update(status);
+            if (!run.isBuilding()) {
+                run.save();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.util.IOException2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A JVM-wide cache of archive digests keyed by path, size and modification time. When several targets in a build
+ * deploy the same archive, possibly at the same time, the archive is only read once to compute its digest.
+ * <p>
+ * Many file systems only record modification times to the second, or even to two seconds, so an archive rewritten
+ * with the same size shortly after its digest was computed could keep its modification time. A digest computed within
+ * {@link #MTIME_GRANULARITY} of the modification time is therefore only shared with the requests made while it is
+ * being computed, and computed again afterwards.
+ *
+ * @since 6.1
+ */
+final class ArchiveDigestCache {
+
+    /**
+     * The maximum number of archives to remember.
+     */
+    private static final int MAX_ENTRIES =
+            Integer.getInteger(ArchiveDigestCache.class.getName() + ".MAX_ENTRIES", 64);
+
+    /**
+     * The coarsest modification time resolution to allow for, in milliseconds.
+     */
+    private static final long MTIME_GRANULARITY =
+            Long.getLong(ArchiveDigestCache.class.getName() + ".MTIME_GRANULARITY", 2000L);
+
+    /**
+     * The digests, guarded by itself.
+     */
+    private static final Map<String, Entry> digests = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ArchiveDigestCache() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the digest of an archive, computing it only if the archive has not been seen before or has changed.
+     *
+     * @param archive the archive.
+     * @return the digest.
+     * @throws IOException          if the archive could not be read.
+     * @throws InterruptedException if interrupted while another thread computes the digest.
+     */
+    @NonNull
+    static String digestOf(@NonNull final File archive) throws IOException, InterruptedException {
+        final String path = archive.getCanonicalPath();
+        final long length = archive.length();
+        final long lastModified = archive.lastModified();
+        Entry entry;
+        boolean compute = false;
+        synchronized (digests) {
+            entry = digests.get(path);
+            if (entry == null || entry.length != length || entry.lastModified != lastModified
+                    || (entry.digest.isDone() && !entry.isSettled())) {
+                entry = new Entry(length, lastModified, System.currentTimeMillis(), new FutureTask<String>(new Callable<String>() {
+                    public String call() throws IOException {
+                        InputStream in = new FileInputStream(archive);
+                        try {
+                            return Util.getDigestOf(in);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                }));
+                digests.put(path, entry);
+                compute = true;
+            }
+        }
+        if (compute) {
+            entry.digest.run();
+        }
+        try {
+            return entry.digest.get();
+        } catch (ExecutionException e) {
+            synchronized (digests) {
+                if (digests.get(path) == entry) {
+                    digests.remove(path);
+                }
+            }
+            throw new IOException2("Could not compute the digest of " + archive, e.getCause());
+        }
+    }
+
+    private static final class Entry {
+        private final long length;
+        private final long lastModified;
+        private final long computed;
+        private final FutureTask<String> digest;
+
+        private Entry(long length, long lastModified, long computed, FutureTask<String> digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.computed = computed;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns {@code true} if the archive could not have been rewritten within the same modification time after
+         * the digest was computed.
+         */
+        private boolean isSettled() {
+            return computed - lastModified > MTIME_GRANULARITY;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import net.jcip.annotations.Immutable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * What the node holding an archive could tell about it in a single round trip: whether it is a file, its size and
+ * modification time, whether it passes the {@link ZipIntegrityCheck} and, when asked for, its digest. The engine
+ * probes each archive once per deployment and hands the result to the later steps so they do not have to ask the
+ * node again.
+ *
+ * @since 6.1
+ */
+@Immutable
+final class ArchiveProbe implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean file;
+
+    private final long length;
+
+    private final long lastModified;
+
+    /**
+     * Why the archive is not a sound zip or {@code null} if it is.
+     */
+    @CheckForNull
+    private final String zipProblem;
+
+    @CheckForNull
+    private final String digest;
+
+    private ArchiveProbe(boolean file, long length, long lastModified, String zipProblem, String digest) {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.zipProblem = zipProblem;
+        this.digest = digest;
+    }
+
+    /**
+     * Probes an archive on the current node.
+     *
+     * @param archive the archive.
+     * @param digest  whether to compute the digest of the archive.
+     * @return the probe.
+     * @throws IOException          if the digest could not be computed.
+     * @throws InterruptedException if interrupted while computing the digest.
+     */
+    @NonNull
+    static ArchiveProbe probe(@NonNull File archive, boolean digest) throws IOException, InterruptedException {
+        if (!archive.isFile()) {
+            return new ArchiveProbe(false, -1, -1, "not a file", null);
+        }
+        long length = archive.length();
+        long lastModified = archive.lastModified();
+        String zipProblem = ZipIntegrityCheck.check(archive);
+        return new ArchiveProbe(true, length, lastModified, zipProblem,
+                digest && zipProblem == null ? ArchiveDigestCache.digestOf(archive) : null);
+    }
+
+    /**
+     * Returns {@code true} if the archive can be deployed.
+     *
+     * @return {@code true} if the archive can be deployed.
+     */
+    boolean isValid() {
+        return file && zipProblem == null;
+    }
+
+    /**
+     * Returns why the archive cannot be deployed.
+     *
+     * @return why the archive cannot be deployed or {@code null} if it can.
+     */
+    @CheckForNull
+    String getProblem() {
+        return zipProblem;
+    }
+
+    /**
+     * Returns the size of the archive.
+     *
+     * @return the size of the archive in bytes or {@code -1} if it is not a file.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the modification time of the archive.
+     *
+     * @return the modification time of the archive or {@code -1} if it is not a file.
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the digest of the archive.
+     *
+     * @return the digest of the archive or {@code null} if it was not computed.
+     */
+    @CheckForNull
+    String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns {@code true} if the archive has not been touched since it was probed.
+     *
+     * @param archive the archive.
+     * @return {@code true} if the archive has not been touched since it was probed.
+     */
+    boolean isCurrent(@NonNull File archive) {
+        return file && archive.length() == length && archive.lastModified() == lastModified;
+    }
+
+    /**
+     * Probes an archive on the node that holds it.
+     */
+    static final class ProbeCallable implements FilePath.FileCallable<ArchiveProbe> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean digest;
+
+        ProbeCallable(boolean digest) {
+            this.digest = digest;
+        }
+
+        public ArchiveProbe invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            return probe(f, digest);
+        }
+    }
+}
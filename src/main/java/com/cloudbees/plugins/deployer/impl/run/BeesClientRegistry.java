@@ -0,0 +1,300 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.api.BeesClientConfiguration;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.Hudson;
+import org.apache.commons.httpclient.params.HttpClientParams;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A JVM-wide registry of {@link PooledBeesClient} instances keyed by API end-point, API key, secret, proxy settings
+ * (including the proxy password) and socket timeout. The registry lives in whichever JVM performs the call, so
+ * deployments share clients on the agent while the UI queries share clients on the master.
+ *
+ * @since 6.1
+ */
+final class BeesClientRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(BeesClientRegistry.class.getName());
+
+    /**
+     * How long a client can be unused before it is evicted.
+     */
+    private static final long IDLE_TIMEOUT = Long.getLong(BeesClientRegistry.class.getName() + ".IDLE_TIMEOUT",
+            TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * The maximum number of pooled connections per API end-point host.
+     */
+    private static final int MAX_CONNECTIONS_PER_HOST =
+            Integer.getInteger(BeesClientRegistry.class.getName() + ".MAX_CONNECTIONS_PER_HOST", 8);
+
+    /**
+     * The clients, guarded by itself.
+     */
+    private static final Map<Key, Entry> clients = new HashMap<Key, Entry>();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private BeesClientRegistry() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Gets the shared client for the specified end-point and credentials using the default socket timeout.
+     *
+     * @param server the API end-point.
+     * @param apiKey the API key.
+     * @param secret the API secret.
+     * @return the shared client.
+     */
+    @NonNull
+    static PooledBeesClient get(@NonNull String server, @NonNull String apiKey, @NonNull String secret) {
+        return get(server, apiKey, secret, 0);
+    }
+
+    /**
+     * Gets the shared client for the specified end-point and credentials.
+     *
+     * @param server    the API end-point.
+     * @param apiKey    the API key.
+     * @param secret    the API secret.
+     * @param soTimeout the socket timeout in milliseconds or {@code 0} to use the default.
+     * @return the shared client.
+     */
+    @NonNull
+    static PooledBeesClient get(@NonNull String server, @NonNull String apiKey, @NonNull String secret,
+                                int soTimeout) {
+        final ProxyConfiguration proxy = Hudson.getInstance() == null ? null : Hudson.getInstance().proxy;
+        final Key key = new Key(server, apiKey, secret, proxy, soTimeout);
+        synchronized (clients) {
+            evictIdle(System.currentTimeMillis());
+            Entry entry = clients.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                entry.lastUsed = System.currentTimeMillis();
+                return entry.client;
+            }
+            misses.incrementAndGet();
+            BeesClientConfiguration config = new BeesClientConfiguration(server, apiKey, secret, "xml", "1.0");
+            if (proxy != null) {
+                config.setProxyHost(proxy.name);
+                config.setProxyPort(proxy.port);
+                config.setProxyUser(proxy.getUserName());
+                config.setProxyPassword(proxy.getPassword());
+            }
+            if (soTimeout > 0) {
+                HttpClientParams httpClientParams = new HttpClientParams();
+                httpClientParams.setSoTimeout(soTimeout);
+                config.setHttpClientParams(httpClientParams);
+            }
+            entry = new Entry(new PooledBeesClient(config, server, MAX_CONNECTIONS_PER_HOST, soTimeout));
+            clients.put(key, entry);
+            return entry.client;
+        }
+    }
+
+    /**
+     * Evicts the clients that have not been used within {@link #IDLE_TIMEOUT} and are not busy.
+     *
+     * @param now the current time.
+     */
+    private static void evictIdle(long now) {
+        for (Iterator<Entry> i = clients.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.client.isBusy()) {
+                continue;
+            }
+            if (entry.lastUsed + IDLE_TIMEOUT < now) {
+                i.remove();
+                evictions.incrementAndGet();
+                try {
+                    entry.client.shutdown();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Could not shut down evicted client", e);
+                }
+            } else {
+                entry.client.closeIdleConnections(IDLE_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests that were served by an existing client.
+     *
+     * @return the number of requests that were served by an existing client.
+     */
+    static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that required a new client.
+     *
+     * @return the number of requests that required a new client.
+     */
+    static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of clients that have been evicted for being idle.
+     *
+     * @return the number of clients that have been evicted for being idle.
+     */
+    static long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of clients currently in the registry.
+     *
+     * @return the number of clients currently in the registry.
+     */
+    static int size() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    private static final class Entry {
+        private final PooledBeesClient client;
+        private volatile long lastUsed;
+
+        private Entry(PooledBeesClient client) {
+            this.client = client;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The identity of a client.
+     */
+    private static final class Key {
+        @NonNull
+        private final String server;
+        @NonNull
+        private final String apiKey;
+        @NonNull
+        private final String secretDigest;
+        @CheckForNull
+        private final String proxyHost;
+        private final int proxyPort;
+        @CheckForNull
+        private final String proxyUser;
+        @CheckForNull
+        private final String proxyPasswordDigest;
+        private final int soTimeout;
+
+        private Key(@NonNull String server, @NonNull String apiKey, @NonNull String secret,
+                    @CheckForNull ProxyConfiguration proxy, int soTimeout) {
+            this.server = server;
+            this.apiKey = apiKey;
+            this.secretDigest = Util.getDigestOf(secret);
+            this.proxyHost = proxy == null ? null : proxy.name;
+            this.proxyPort = proxy == null ? -1 : proxy.port;
+            this.proxyUser = proxy == null ? null : proxy.getUserName();
+            String proxyPassword = proxy == null ? null : proxy.getPassword();
+            this.proxyPasswordDigest = proxyPassword == null ? null : Util.getDigestOf(proxyPassword);
+            this.soTimeout = soTimeout;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            if (proxyPort != key.proxyPort) {
+                return false;
+            }
+            if (soTimeout != key.soTimeout) {
+                return false;
+            }
+            if (!apiKey.equals(key.apiKey)) {
+                return false;
+            }
+            if (proxyHost != null ? !proxyHost.equals(key.proxyHost) : key.proxyHost != null) {
+                return false;
+            }
+            if (proxyUser != null ? !proxyUser.equals(key.proxyUser) : key.proxyUser != null) {
+                return false;
+            }
+            if (proxyPasswordDigest != null
+                    ? !proxyPasswordDigest.equals(key.proxyPasswordDigest)
+                    : key.proxyPasswordDigest != null) {
+                return false;
+            }
+            if (!secretDigest.equals(key.secretDigest)) {
+                return false;
+            }
+            if (!server.equals(key.server)) {
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            int result = server.hashCode();
+            result = 31 * result + apiKey.hashCode();
+            result = 31 * result + secretDigest.hashCode();
+            result = 31 * result + (proxyHost != null ? proxyHost.hashCode() : 0);
+            result = 31 * result + proxyPort;
+            result = 31 * result + (proxyUser != null ? proxyUser.hashCode() : 0);
+            result = 31 * result + (proxyPasswordDigest != null ? proxyPasswordDigest.hashCode() : 0);
+            result = 31 * result + soTimeout;
+            return result;
+        }
+    }
+}
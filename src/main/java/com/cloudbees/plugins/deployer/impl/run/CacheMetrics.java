@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Hit, miss and load time statistics for one of the plugin's caches.
+ *
+ * @since 6.1
+ */
+public final class CacheMetrics {
+
+    private final StripedCounter hits = new StripedCounter();
+
+    private final StripedCounter misses = new StripedCounter();
+
+    private final LatencyHistogram loadTime = new LatencyHistogram();
+
+    CacheMetrics() {
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    /**
+     * Records how long it took to load a missing value.
+     *
+     * @param millis the load time in milliseconds.
+     */
+    void loaded(long millis) {
+        loadTime.record(millis);
+    }
+
+    @NonNull
+    Snapshot snapshot() {
+        return new Snapshot(hits.get(), misses.get(), loadTime.snapshot());
+    }
+
+    /**
+     * A point in time view of a {@link CacheMetrics}, exposed over JMX as composite data.
+     */
+    public static final class Snapshot {
+        private final long hits;
+        private final long misses;
+        private final LatencyHistogram.Snapshot loadTime;
+
+        Snapshot(long hits, long misses, LatencyHistogram.Snapshot loadTime) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loadTime = loadTime;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : hits / (double) total;
+        }
+
+        public LatencyHistogram.Snapshot getLoadTime() {
+            return loadTime;
+        }
+    }
+}
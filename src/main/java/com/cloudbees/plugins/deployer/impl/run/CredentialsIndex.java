@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import org.acegisecurity.Authentication;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves {@link CloudBeesUser}s by name. The users visible from a context to an authentication are looked up once
+ * and indexed by name, rather than scanning every credential on each deployment and form validation. The index is
+ * dropped whenever a credential store is saved and otherwise expires after {@link #TTL} to cover providers that are
+ * not {@link Saveable}.
+ *
+ * @since 6.1
+ */
+final class CredentialsIndex {
+
+    /**
+     * How long an index may be used for, in milliseconds.
+     */
+    private static final long TTL = Long.getLong(CredentialsIndex.class.getName() + ".TTL",
+            TimeUnit.MINUTES.toMillis(1));
+
+    /**
+     * The number of context and authentication combinations to keep indexes for.
+     */
+    private static final int MAX_ENTRIES = Integer.getInteger(CredentialsIndex.class.getName() + ".MAX_ENTRIES", 256);
+
+    /**
+     * The indexes, least recently used first, guarded by itself.
+     */
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Incremented on every invalidation so that a lookup racing with a change does not store what it found, guarded
+     * by {@link #entries}.
+     */
+    private static long generation;
+
+    private CredentialsIndex() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Finds a user visible from an item.
+     *
+     * @param context        the item or {@code null} for the root.
+     * @param authentication the authentication to look up the credentials as.
+     * @param name           the name of the user.
+     * @return the first user with that name or {@code null} if there is none.
+     */
+    @CheckForNull
+    static CloudBeesUser find(@CheckForNull Item context, @NonNull Authentication authentication,
+                              @CheckForNull String name) {
+        return users(context, authentication).get(name);
+    }
+
+    /**
+     * Lists the users visible from an item.
+     *
+     * @param context        the item or {@code null} for the root.
+     * @param authentication the authentication to look up the credentials as.
+     * @return the first user of each name.
+     */
+    @NonNull
+    static Collection<CloudBeesUser> list(@CheckForNull Item context, @NonNull Authentication authentication) {
+        return users(context, authentication).values();
+    }
+
+    @NonNull
+    private static Map<String, CloudBeesUser> users(@CheckForNull Item context,
+                                                    @NonNull Authentication authentication) {
+        String key = "item:" + (context == null ? "" : context.getFullName()) + "@" + authentication.getName();
+        Map<String, CloudBeesUser> users = get(key);
+        if (users == null) {
+            long started = System.nanoTime();
+            long expected = currentGeneration();
+            users = index(CredentialsProvider.lookupCredentials(CloudBeesUser.class, context, authentication));
+            put(key, expected, users, started);
+        }
+        return users;
+    }
+
+    /**
+     * Finds a user visible from an item group.
+     *
+     * @param context        the item group or {@code null} for the root.
+     * @param authentication the authentication to look up the credentials as.
+     * @param name           the name of the user.
+     * @return the first user with that name or {@code null} if there is none.
+     */
+    @CheckForNull
+    static CloudBeesUser find(@CheckForNull ItemGroup<?> context, @NonNull Authentication authentication,
+                              @CheckForNull String name) {
+        String key = "group:" + (context == null ? "" : context.getFullName()) + "@" + authentication.getName();
+        Map<String, CloudBeesUser> users = get(key);
+        if (users == null) {
+            long started = System.nanoTime();
+            long expected = currentGeneration();
+            users = index(CredentialsProvider.lookupCredentials(CloudBeesUser.class, context, authentication));
+            put(key, expected, users, started);
+        }
+        return users.get(name);
+    }
+
+    /**
+     * Drops every index.
+     */
+    static void invalidate() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    @CheckForNull
+    private static Map<String, CloudBeesUser> get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        DeploymentMetrics.get().cache(DeploymentMetrics.CREDENTIALS_CACHE).hit();
+        return entry.users;
+    }
+
+    private static void put(String key, long expected, Map<String, CloudBeesUser> users, long started) {
+        synchronized (entries) {
+            if (generation == expected) {
+                entries.put(key, new Entry(users));
+            }
+        }
+        CacheMetrics metrics = DeploymentMetrics.get().cache(DeploymentMetrics.CREDENTIALS_CACHE);
+        metrics.miss();
+        metrics.loaded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private static long currentGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    private static Map<String, CloudBeesUser> index(List<CloudBeesUser> users) {
+        Map<String, CloudBeesUser> result = new LinkedHashMap<String, CloudBeesUser>();
+        for (CloudBeesUser user : users) {
+            // the first match wins, as it did when the list was scanned
+            if (!result.containsKey(user.getName())) {
+                result.put(user.getName(), user);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static final class Entry {
+
+        private final Map<String, CloudBeesUser> users;
+
+        private final long expires = System.currentTimeMillis() + TTL;
+
+        private Entry(Map<String, CloudBeesUser> users) {
+            this.users = users;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+
+    /**
+     * Drops the indexes when something that can hold credentials is saved: the system store, a user (whose store is
+     * one of its properties) or a folder (likewise). Other item groups, such as Jenkins itself or a Maven project,
+     * hold no credentials, and their frequent saves must not flush the indexes.
+     */
+    @Extension
+    @SuppressWarnings("unused")
+    public static class ListenerImpl extends SaveableListener {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider || o instanceof CredentialsProvider || o instanceof User
+                    || isFolder(o)) {
+                invalidate();
+                FormCredentials.invalidate();
+            }
+        }
+
+        /**
+         * Returns {@code true} for a folder, that is an item group that is itself an item but not a job, without
+         * depending on the folders plugin.
+         */
+        private static boolean isFolder(Saveable o) {
+            return o instanceof ItemGroup && o instanceof Item && !(o instanceof Job);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Works out which entries of an archive differ from the checksums reported by {@code application.checkSums} and
+ * writes an archive containing only those entries. The CRCs are taken from the zip central directory, so planning
+ * a delta never inflates the archive.
+ *
+ * @since 6.1
+ */
+final class DeltaArchive {
+
+    /**
+     * The entries that are new or changed.
+     */
+    @NonNull
+    private final List<String> changed;
+
+    /**
+     * The number of entries that the server already has.
+     */
+    private final int unchanged;
+
+    /**
+     * The entries that the server has but the archive does not.
+     */
+    @NonNull
+    private final Set<String> removed;
+
+    /**
+     * The compressed size of the changed entries.
+     */
+    private final long changedBytes;
+
+    /**
+     * The compressed size of all the entries.
+     */
+    private final long totalBytes;
+
+    private DeltaArchive(@NonNull List<String> changed, int unchanged, @NonNull Set<String> removed,
+                         long changedBytes, long totalBytes) {
+        this.changed = changed;
+        this.unchanged = unchanged;
+        this.removed = removed;
+        this.changedBytes = changedBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Compares the entries of an archive with the checksums held by the server.
+     *
+     * @param archive   the archive.
+     * @param checkSums the CRC of each entry currently deployed, keyed by entry name.
+     * @return the delta.
+     * @throws IOException if the archive could not be read.
+     */
+    @NonNull
+    static DeltaArchive plan(@NonNull File archive, @NonNull Map<String, Long> checkSums) throws IOException {
+        List<String> changed = new ArrayList<String>();
+        Set<String> removed = new HashSet<String>(checkSums.keySet());
+        int unchanged = 0;
+        long changedBytes = 0;
+        long totalBytes = 0;
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                removed.remove(entry.getName());
+                long size = Math.max(entry.getCompressedSize(), 0);
+                totalBytes += size;
+                Long crc = checkSums.get(entry.getName());
+                if (crc != null && crc == entry.getCrc()) {
+                    unchanged++;
+                } else {
+                    changed.add(entry.getName());
+                    changedBytes += size;
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return new DeltaArchive(Collections.unmodifiableList(changed), unchanged,
+                Collections.unmodifiableSet(removed), changedBytes, totalBytes);
+    }
+
+    /**
+     * Returns {@code true} if the delta can be applied on top of the deployed archive. Deletions cannot be
+     * expressed by an archive that only carries changed entries, so a full upload is required when there are any.
+     *
+     * @return {@code true} if the delta can be applied on top of the deployed archive.
+     */
+    boolean isApplicable() {
+        return removed.isEmpty();
+    }
+
+    /**
+     * Writes an archive containing just the changed entries.
+     *
+     * @param archive the full archive that this delta was planned from.
+     * @param target  the file to write.
+     * @throws IOException if the delta could not be written.
+     */
+    void write(@NonNull File archive, @NonNull File target) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            try {
+                for (String name : changed) {
+                    ZipEntry source = zip.getEntry(name);
+                    ZipEntry entry = new ZipEntry(name);
+                    entry.setTime(source.getTime());
+                    out.putNextEntry(entry);
+                    InputStream in = zip.getInputStream(source);
+                    try {
+                        IOUtils.copy(in, out);
+                    } finally {
+                        in.close();
+                    }
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    public int getChangedCount() {
+        return changed.size();
+    }
+
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+
+    public int getRemovedCount() {
+        return removed.size();
+    }
+
+    public long getChangedBytes() {
+        return changedBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.BulkChange;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.remoting.Callable;
+import net.jcip.annotations.Immutable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent index, held on the master, of the archive and settings digests of the last successful deployment
+ * to each application environment. It allows a deployment of a byte-identical archive with identical settings to
+ * be skipped. The last {@link #HISTORY_SIZE} deployments of each application environment are also kept so that a
+ * redeployment of an older archive can be recognised as a rollback.
+ *
+ * @since 6.1
+ */
+final class DeploymentDigestIndex implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentDigestIndex.class.getName());
+
+    /**
+     * The singleton instance, lazily loaded.
+     */
+    private static DeploymentDigestIndex instance;
+
+    /**
+     * How many past deployments to keep per application environment.
+     */
+    static final int HISTORY_SIZE = Integer.getInteger(DeploymentDigestIndex.class.getName() + ".HISTORY_SIZE", 10);
+
+    /**
+     * The records keyed by {@link #key(String, String, String)}.
+     */
+    private final Map<String, Record> records = new HashMap<String, Record>();
+
+    /**
+     * The past deployments, most recent first, keyed by {@link #key(String, String, String)} and guarded by
+     * {@link #records}.
+     */
+    private final Map<String, List<Record>> history = new HashMap<String, List<Record>>();
+
+    private DeploymentDigestIndex() {
+    }
+
+    /**
+     * Returns the index, loading it from disk if necessary.
+     *
+     * @return the index.
+     */
+    @NonNull
+    static synchronized DeploymentDigestIndex get() {
+        if (instance == null) {
+            DeploymentDigestIndex index = new DeploymentDigestIndex();
+            XmlFile file = index.getConfigFile();
+            if (file != null && file.exists()) {
+                try {
+                    file.unmarshal(index);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not load " + file, e);
+                }
+            }
+            instance = index;
+        }
+        return instance;
+    }
+
+    /**
+     * Builds the key for an application environment.
+     *
+     * @param server        the API end-point.
+     * @param applicationId the fully qualified application id.
+     * @param environment   the application environment.
+     * @return the key.
+     */
+    @NonNull
+    static String key(@NonNull String server, @NonNull String applicationId, @NonNull String environment) {
+        return server + "|" + applicationId + "|" + environment;
+    }
+
+    /**
+     * Looks up the last successful deployment.
+     *
+     * @param key the key.
+     * @return the record or {@code null}.
+     */
+    @CheckForNull
+    Record lookup(@NonNull String key) {
+        synchronized (records) {
+            return records.get(key);
+        }
+    }
+
+    /**
+     * Returns the past deployments.
+     *
+     * @param key the key.
+     * @return the past deployments, most recent first.
+     */
+    @NonNull
+    List<Record> history(@NonNull String key) {
+        synchronized (records) {
+            List<Record> records = history.get(key);
+            return records == null ? new ArrayList<Record>() : new ArrayList<Record>(records);
+        }
+    }
+
+    /**
+     * Records a successful deployment.
+     *
+     * @param key    the key.
+     * @param record the record.
+     */
+    void record(@NonNull String key, @NonNull Record record) {
+        synchronized (records) {
+            records.put(key, record);
+            List<Record> past = history.get(key);
+            if (past == null) {
+                past = new ArrayList<Record>();
+                history.put(key, past);
+            }
+            for (Iterator<Record> iterator = past.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().getArchiveDigest().equals(record.getArchiveDigest())) {
+                    iterator.remove();
+                }
+            }
+            past.add(0, record);
+            while (past.size() > HISTORY_SIZE) {
+                past.remove(past.size() - 1);
+            }
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save deployment digest index", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save() throws IOException {
+        if (BulkChange.contains(this)) {
+            return;
+        }
+        XmlFile file = getConfigFile();
+        if (file == null) {
+            return;
+        }
+        synchronized (records) {
+            file.write(this);
+        }
+        SaveableListener.fireOnChange(this, file);
+    }
+
+    @CheckForNull
+    private XmlFile getConfigFile() {
+        Hudson hudson = Hudson.getInstance();
+        if (hudson == null) {
+            return null;
+        }
+        return new XmlFile(Hudson.XSTREAM, new File(hudson.getRootDir(), DeploymentDigestIndex.class.getName()
+                + ".xml"));
+    }
+
+    /**
+     * The details of a successful deployment.
+     */
+    @Immutable
+    static final class Record implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final String archiveDigest;
+
+        @NonNull
+        private final String settingsDigest;
+
+        @NonNull
+        private final String applicationId;
+
+        @NonNull
+        private final String url;
+
+        private final long timestamp;
+
+        /**
+         * The build that deployed the archive, {@code null} for records written before it was tracked.
+         */
+        @CheckForNull
+        private final String buildId;
+
+        Record(@NonNull String archiveDigest, @NonNull String settingsDigest, @NonNull String applicationId,
+               @NonNull String url, long timestamp, @CheckForNull String buildId) {
+            this.archiveDigest = archiveDigest;
+            this.settingsDigest = settingsDigest;
+            this.applicationId = applicationId;
+            this.url = url;
+            this.timestamp = timestamp;
+            this.buildId = buildId;
+        }
+
+        @NonNull
+        public String getArchiveDigest() {
+            return archiveDigest;
+        }
+
+        @NonNull
+        public String getSettingsDigest() {
+            return settingsDigest;
+        }
+
+        @NonNull
+        public String getApplicationId() {
+            return applicationId;
+        }
+
+        @NonNull
+        public String getUrl() {
+            return url;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @CheckForNull
+        public String getBuildId() {
+            return buildId;
+        }
+    }
+
+    /**
+     * Records a successful deployment in the master's index when invoked from an agent.
+     */
+    static final class RecordCallable implements Callable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final String key;
+
+        @NonNull
+        private final Record record;
+
+        RecordCallable(@NonNull String key, @NonNull Record record) {
+            this.key = key;
+            this.record = record;
+        }
+
+        public Void call() throws IOException {
+            get().record(key, record);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.remoting.Callable;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Master-wide RUN@cloud deployment metrics. Deployments report to the master over the back-channel, so the numbers
+ * cover every agent. All counters are {@link StripedCounter}s so recording can stay on permanently.
+ *
+ * @since 6.1
+ */
+final class DeploymentMetrics implements DeploymentMetricsMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentMetrics.class.getName());
+
+    private static final DeploymentMetrics INSTANCE = new DeploymentMetrics();
+
+    /**
+     * The cache of application statuses in {@link RunTargetImpl.DescriptorImpl}.
+     */
+    static final String APPLICATION_STATUS_CACHE = "applicationStatusCache";
+
+    /**
+     * The cache of account end-points in {@link RunTargetImpl.DescriptorImpl}.
+     */
+    static final String ACCOUNT_ENDPOINTS_CACHE = "accountEndpointsCache";
+
+    /**
+     * The cache of inferred targets in {@link RunHostImpl.DescriptorImpl}.
+     */
+    static final String NEW_TARGET_CACHE = "newTargetCache";
+
+    /**
+     * The index of users by name in {@link CredentialsIndex}.
+     */
+    static final String CREDENTIALS_CACHE = "credentialsCache";
+
+    private final StripedCounter started = new StripedCounter();
+
+    private final StripedCounter succeeded = new StripedCounter();
+
+    private final StripedCounter failed = new StripedCounter();
+
+    private final StripedCounter skipped = new StripedCounter();
+
+    private final StripedCounter bytesUploaded = new StripedCounter();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final ConcurrentMap<String, LatencyHistogram> latencyByEndpoint =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, LatencyHistogram> latencyByAccount =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentHashMap<String, CacheMetrics>();
+
+    private DeploymentMetrics() {
+    }
+
+    @NonNull
+    static DeploymentMetrics get() {
+        return INSTANCE;
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    @SuppressWarnings("unused")
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName("com.cloudbees.plugins.deployer:type=RunDeployments"));
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Could not register the RUN@cloud deployment metrics", e);
+        }
+    }
+
+    /**
+     * Returns the metrics of a named cache.
+     *
+     * @param name the name of the cache.
+     * @return the metrics.
+     */
+    @NonNull
+    CacheMetrics cache(@NonNull String name) {
+        CacheMetrics metrics = caches.get(name);
+        if (metrics == null) {
+            CacheMetrics created = new CacheMetrics();
+            metrics = caches.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Records that a deployment has been admitted by the {@link DeploymentScheduler}.
+     */
+    void deployStarted() {
+        started.increment();
+    }
+
+    /**
+     * Records the outcome of a deployment that was started.
+     *
+     * @param endpoint  the API end-point.
+     * @param account   the account.
+     * @param succeeded whether the deployment succeeded.
+     * @param millis    how long the deployment took.
+     * @param bytes     the number of bytes uploaded.
+     */
+    void deployCompleted(@NonNull String endpoint, @NonNull String account, boolean succeeded, long millis,
+                         long bytes) {
+        (succeeded ? this.succeeded : this.failed).increment();
+        bytesUploaded.add(bytes);
+        latency.record(millis);
+        histogram(latencyByEndpoint, endpoint).record(millis);
+        histogram(latencyByAccount, account).record(millis);
+    }
+
+    /**
+     * Records a deployment that was skipped as unchanged.
+     */
+    void deploySkipped() {
+        skipped.increment();
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> map, String key) {
+        LatencyHistogram histogram = map.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = map.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    private static Map<String, LatencyHistogram.Snapshot> snapshot(Map<String, LatencyHistogram> map) {
+        Map<String, LatencyHistogram.Snapshot> result = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    public long getDeploysStarted() {
+        return started.get();
+    }
+
+    public long getDeploysSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getDeploysFailed() {
+        return failed.get();
+    }
+
+    public long getDeploysSkipped() {
+        return skipped.get();
+    }
+
+    public long getDeploysInFlight() {
+        // read the completions first so that a racing completion cannot make the difference negative
+        long completed = failed.get() + succeeded.get();
+        return Math.max(0, started.get() - completed);
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    public LatencyHistogram.Snapshot getDeployLatency() {
+        return latency.snapshot();
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> getDeployLatencyByEndpoint() {
+        return snapshot(latencyByEndpoint);
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> getDeployLatencyByAccount() {
+        return snapshot(latencyByAccount);
+    }
+
+    public Map<String, CacheMetrics.Snapshot> getCaches() {
+        Map<String, CacheMetrics.Snapshot> result = new TreeMap<String, CacheMetrics.Snapshot>();
+        for (Map.Entry<String, CacheMetrics> entry : caches.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    public long getClientRegistryHits() {
+        return BeesClientRegistry.getHitCount();
+    }
+
+    public long getClientRegistryMisses() {
+        return BeesClientRegistry.getMissCount();
+    }
+
+    public long getClientRegistryEvictions() {
+        return BeesClientRegistry.getEvictionCount();
+    }
+
+    public long getAccountQueryQueueDepth() {
+        return AccountQueryExecutor.get().getQueueDepth();
+    }
+
+    public long getAccountQueriesRunning() {
+        return AccountQueryExecutor.get().getActiveCount();
+    }
+
+    public LatencyHistogram.Snapshot getAccountQueryWaitTime() {
+        return AccountQueryExecutor.get().getWaitTime();
+    }
+
+    public long getAccountQueryRejections() {
+        return AccountQueryExecutor.get().getRejectionCount();
+    }
+
+    /**
+     * Reports the outcome of a deployment to the master when invoked from an agent.
+     */
+    static final class CompletedCallable implements Callable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String endpoint;
+        private final String account;
+        private final boolean succeeded;
+        private final long millis;
+        private final long bytes;
+
+        CompletedCallable(String endpoint, String account, boolean succeeded, long millis, long bytes) {
+            this.endpoint = endpoint;
+            this.account = account;
+            this.succeeded = succeeded;
+            this.millis = millis;
+            this.bytes = bytes;
+        }
+
+        public Void call() {
+            get().deployCompleted(endpoint, account, succeeded, millis, bytes);
+            return null;
+        }
+    }
+
+    /**
+     * Reports a skipped deployment to the master when invoked from an agent.
+     */
+    static final class SkippedCallable implements Callable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Void call() {
+            get().deploySkipped();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the RUN@cloud deployment metrics of this master, registered as
+ * {@code com.cloudbees.plugins.deployer:type=RunDeployments}. Latencies are in milliseconds.
+ *
+ * @since 6.1
+ */
+public interface DeploymentMetricsMXBean {
+
+    long getDeploysStarted();
+
+    long getDeploysSucceeded();
+
+    long getDeploysFailed();
+
+    long getDeploysSkipped();
+
+    long getDeploysInFlight();
+
+    long getBytesUploaded();
+
+    LatencyHistogram.Snapshot getDeployLatency();
+
+    Map<String, LatencyHistogram.Snapshot> getDeployLatencyByEndpoint();
+
+    Map<String, LatencyHistogram.Snapshot> getDeployLatencyByAccount();
+
+    Map<String, CacheMetrics.Snapshot> getCaches();
+
+    long getClientRegistryHits();
+
+    long getClientRegistryMisses();
+
+    long getClientRegistryEvictions();
+
+    long getAccountQueryQueueDepth();
+
+    long getAccountQueriesRunning();
+
+    LatencyHistogram.Snapshot getAccountQueryWaitTime();
+
+    long getAccountQueryRejections();
+}
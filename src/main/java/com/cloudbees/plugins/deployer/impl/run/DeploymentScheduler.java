@@ -0,0 +1,395 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Bounds how many RUN@cloud deployments run at once across the master. Deployments are admitted when both their
+ * account and their API end-point are below their concurrency caps. Waiting deployments to production environments
+ * are admitted before others, and within a priority class the job that was served least recently goes first so that
+ * one job with many targets cannot starve the rest. The limits are configured with system properties:
+ * <ul>
+ * <li>{@code com.cloudbees.plugins.deployer.impl.run.DeploymentScheduler.ACCOUNT_LIMIT} (default 0, set it to for
+ * instance 4 to keep a burst of builds from deploying to one account all at once)</li>
+ * <li>{@code com.cloudbees.plugins.deployer.impl.run.DeploymentScheduler.ENDPOINT_LIMIT} (default 8)</li>
+ * <li>{@code com.cloudbees.plugins.deployer.impl.run.DeploymentScheduler.PRIORITY_ENVIRONMENTS} a regular expression
+ * matching the high priority environment names (default {@code (?i)run|prod.*})</li>
+ * </ul>
+ * A limit of {@code 0} is unlimited. A slot taken on behalf of an agent is released when the agent's channel
+ * closes, so a lost agent does not hold on to its slots until the lease times out.
+ *
+ * @since 6.1
+ */
+final class DeploymentScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentScheduler.class.getName());
+
+    private static final int ACCOUNT_LIMIT =
+            Integer.getInteger(DeploymentScheduler.class.getName() + ".ACCOUNT_LIMIT", 0);
+
+    private static final int ENDPOINT_LIMIT =
+            Integer.getInteger(DeploymentScheduler.class.getName() + ".ENDPOINT_LIMIT", 8);
+
+    private static final Pattern PRIORITY_ENVIRONMENTS = Pattern.compile(
+            System.getProperty(DeploymentScheduler.class.getName() + ".PRIORITY_ENVIRONMENTS", "(?i)run|prod.*"));
+
+    /**
+     * A slot that has not been released after this long is assumed to have been leaked and is reclaimed. Slots held
+     * by agents are normally reclaimed as soon as the agent's channel closes.
+     */
+    private static final long LEASE_TIMEOUT = Long.getLong(DeploymentScheduler.class.getName() + ".LEASE_TIMEOUT",
+            TimeUnit.HOURS.toMillis(2));
+
+    private static final DeploymentScheduler INSTANCE = new DeploymentScheduler();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Guarded by {@code this}.
+     */
+    private final List<Slot> waiting = new ArrayList<Slot>();
+
+    /**
+     * Guarded by {@code this}.
+     */
+    private final Map<Long, Slot> running = new HashMap<Long, Slot>();
+
+    /**
+     * The sequence number at which each job with queued or running deployments was last admitted, guarded by
+     * {@code this}.
+     */
+    private final Map<String, Long> lastServed = new HashMap<String, Long>();
+
+    /**
+     * The agent channels that we are listening to for closure, guarded by {@code this}.
+     */
+    private final Set<Channel> watched = new HashSet<Channel>();
+
+    private DeploymentScheduler() {
+    }
+
+    @NonNull
+    static DeploymentScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Blocks until a deployment from the master may proceed.
+     *
+     * @param account     the account.
+     * @param endpoint    the API end-point.
+     * @param environment the application environment.
+     * @param job         the full name of the job.
+     * @return the admitted slot, which must be {@link #release(long)}d.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @NonNull
+    Slot acquire(@NonNull String account, @NonNull String endpoint, @NonNull String environment,
+                 @NonNull String job) throws InterruptedException {
+        return acquire(account, endpoint, environment, job, null);
+    }
+
+    /**
+     * Blocks until the deployment may proceed.
+     *
+     * @param account     the account.
+     * @param endpoint    the API end-point.
+     * @param environment the application environment.
+     * @param job         the full name of the job.
+     * @param channel     the channel of the agent performing the deployment or {@code null} for the master.
+     * @return the admitted slot, which must be {@link #release(long)}d.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @NonNull
+    Slot acquire(@NonNull String account, @NonNull String endpoint, @NonNull String environment,
+                 @NonNull String job, @CheckForNull Channel channel) throws InterruptedException {
+        Slot slot = new Slot(sequence.incrementAndGet(), account, endpoint,
+                PRIORITY_ENVIRONMENTS.matcher(environment).matches(), job, channel);
+        boolean watch;
+        synchronized (this) {
+            waiting.add(slot);
+            try {
+                while (next() != slot) {
+                    wait(TimeUnit.MINUTES.toMillis(1)); // wake periodically to reclaim expired leases
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(slot);
+                forget(job);
+                notifyAll();
+                throw e;
+            }
+            waiting.remove(slot);
+            slot.admitted = System.currentTimeMillis();
+            running.put(slot.id, slot);
+            lastServed.put(job, slot.id);
+            watch = channel != null && watched.add(channel);
+            notifyAll();
+        }
+        if (watch) {
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel closed, IOException cause) {
+                    releaseAll(closed);
+                }
+            });
+        }
+        return slot;
+    }
+
+    /**
+     * Releases an admitted slot.
+     *
+     * @param id the slot id.
+     */
+    synchronized void release(long id) {
+        Slot slot = running.remove(id);
+        if (slot != null) {
+            forget(slot.job);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases every slot held through the specified agent channel.
+     *
+     * @param channel the channel that has closed.
+     */
+    synchronized void releaseAll(@NonNull Channel channel) {
+        watched.remove(channel);
+        for (Iterator<Slot> i = running.values().iterator(); i.hasNext(); ) {
+            Slot s = i.next();
+            if (s.channel == channel) {
+                LOGGER.info("Releasing deployment slot for " + s.job + " as its agent has disconnected");
+                i.remove();
+                forget(s.job);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns {@code true} if the scheduler is keeping track of when the job was last served.
+     *
+     * @param job the full name of the job.
+     * @return {@code true} if the scheduler is keeping track of when the job was last served.
+     */
+    synchronized boolean isTracking(@NonNull String job) {
+        return lastServed.containsKey(job);
+    }
+
+    /**
+     * Stops tracking when the job was last served once it has no queued or running deployments.
+     *
+     * @param job the full name of the job.
+     */
+    private void forget(String job) {
+        for (Slot s : waiting) {
+            if (s.job.equals(job)) {
+                return;
+            }
+        }
+        for (Slot s : running.values()) {
+            if (s.job.equals(job)) {
+                return;
+            }
+        }
+        lastServed.remove(job);
+    }
+
+    /**
+     * Picks the waiting slot that should be admitted next, if any can be admitted at all.
+     *
+     * @return the slot to admit next or {@code null}.
+     */
+    @CheckForNull
+    private Slot next() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Slot> i = running.values().iterator(); i.hasNext(); ) {
+            Slot s = i.next();
+            if (s.admitted + LEASE_TIMEOUT < now) {
+                LOGGER.warning("Reclaiming deployment slot for " + s.job + " which was never released");
+                i.remove();
+                forget(s.job);
+            }
+        }
+        Slot best = null;
+        for (Slot candidate : waiting) {
+            if (!isAdmissible(candidate)) {
+                continue;
+            }
+            if (best == null || compare(candidate, best) < 0) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private boolean isAdmissible(Slot candidate) {
+        int accountCount = 0;
+        int endpointCount = 0;
+        for (Slot s : running.values()) {
+            if (s.account.equals(candidate.account)) {
+                accountCount++;
+            }
+            if (s.endpoint.equals(candidate.endpoint)) {
+                endpointCount++;
+            }
+        }
+        return (ACCOUNT_LIMIT <= 0 || accountCount < ACCOUNT_LIMIT)
+                && (ENDPOINT_LIMIT <= 0 || endpointCount < ENDPOINT_LIMIT);
+    }
+
+    private int compare(Slot a, Slot b) {
+        if (a.priority != b.priority) {
+            return a.priority ? -1 : 1;
+        }
+        long aServed = lastServed.containsKey(a.job) ? lastServed.get(a.job) : 0L;
+        long bServed = lastServed.containsKey(b.job) ? lastServed.get(b.job) : 0L;
+        if (aServed != bServed) {
+            return aServed < bServed ? -1 : 1;
+        }
+        return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+    }
+
+    /**
+     * A deployment waiting for or holding a slot.
+     */
+    static final class Slot {
+        private final long id;
+        private final String account;
+        private final String endpoint;
+        private final boolean priority;
+        private final String job;
+        private final Channel channel;
+        private final long queued = System.currentTimeMillis();
+        private long admitted;
+
+        private Slot(long id, String account, String endpoint, boolean priority, String job, Channel channel) {
+            this.id = id;
+            this.account = account;
+            this.endpoint = endpoint;
+            this.priority = priority;
+            this.job = job;
+            this.channel = channel;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        long getWaitMillis() {
+            return admitted - queued;
+        }
+    }
+
+    /**
+     * The outcome of an {@link AcquireCallable}.
+     */
+    static final class Admission implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long id;
+
+        private final long waitMillis;
+
+        Admission(long id, long waitMillis) {
+            this.id = id;
+            this.waitMillis = waitMillis;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        long getWaitMillis() {
+            return waitMillis;
+        }
+    }
+
+    /**
+     * Waits for a slot on the master when invoked from an agent.
+     */
+    static final class AcquireCallable implements Callable<Admission, InterruptedException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String account;
+        private final String endpoint;
+        private final String environment;
+        private final String job;
+
+        AcquireCallable(String account, String endpoint, String environment, String job) {
+            this.account = account;
+            this.endpoint = endpoint;
+            this.environment = environment;
+            this.job = job;
+        }
+
+        public Admission call() throws InterruptedException {
+            // when invoked from an agent this is the agent's channel, locally it is null
+            Slot slot = get().acquire(account, endpoint, environment, job, Channel.current());
+            DeploymentMetrics.get().deployStarted();
+            return new Admission(slot.getId(), slot.getWaitMillis());
+        }
+    }
+
+    /**
+     * Releases a slot on the master when invoked from an agent.
+     */
+    static final class ReleaseCallable implements Callable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long id;
+
+        ReleaseCallable(long id) {
+            this.id = id;
+        }
+
+        public Void call() {
+            get().release(id);
+            return null;
+        }
+    }
+}
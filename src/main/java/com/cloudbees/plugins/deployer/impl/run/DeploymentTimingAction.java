@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Action;
+import hudson.model.Run;
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records how long each phase of the RUN@cloud deployments of a build took, shown on the build page next to the
+ * deployed application locations and charted by {@link DeploymentTimingProjectAction}.
+ *
+ * @since 6.1
+ */
+public class DeploymentTimingAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentTimingAction.class.getName());
+
+    /**
+     * The timings, guarded by itself.
+     */
+    private final List<Timing> timings = new ArrayList<Timing>();
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDisplayName() {
+        return Messages.DeploymentTimingAction_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Returns the timing of each deployment in the order that they completed.
+     *
+     * @return the timing of each deployment in the order that they completed.
+     */
+    @NonNull
+    public List<Timing> getTimings() {
+        synchronized (timings) {
+            return Collections.unmodifiableList(new ArrayList<Timing>(timings));
+        }
+    }
+
+    /**
+     * Returns the total of the timings of every deployment in the build.
+     *
+     * @return the total of the timings of every deployment in the build.
+     */
+    @NonNull
+    public Timing getTotal() {
+        long credentials = 0, expansion = 0, validation = 0, upload = 0, activation = 0, bytes = 0;
+        for (Timing timing : getTimings()) {
+            credentials += timing.getCredentialsMillis();
+            expansion += timing.getExpansionMillis();
+            validation += timing.getValidationMillis();
+            upload += timing.getUploadMillis();
+            activation += timing.getActivationMillis();
+            bytes += timing.getBytesSent();
+        }
+        return new Timing("", credentials, expansion, validation, upload, activation, bytes);
+    }
+
+    private void add(@NonNull Timing timing) {
+        synchronized (timings) {
+            timings.add(timing);
+        }
+    }
+
+    /**
+     * The wall-clock time spent in each phase of deploying one target.
+     */
+    @Immutable
+    public static final class Timing implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final String applicationId;
+
+        /**
+         * Resolving the credentials in {@link RunEngineImpl}. They are shared by the targets of a host, so only the
+         * first target of each host is charged with them.
+         */
+        private final long credentialsMillis;
+
+        /**
+         * Expanding the macros of the target configuration.
+         */
+        private final long expansionMillis;
+
+        /**
+         * Validating the archive on the node holding it.
+         */
+        private final long validationMillis;
+
+        /**
+         * Sending the archive.
+         */
+        private final long uploadMillis;
+
+        /**
+         * Waiting for the server to respond once the archive was sent.
+         */
+        private final long activationMillis;
+
+        private final long bytesSent;
+
+        public Timing(@NonNull String applicationId, long credentialsMillis, long expansionMillis,
+                      long validationMillis, long uploadMillis, long activationMillis, long bytesSent) {
+            this.applicationId = applicationId;
+            this.credentialsMillis = credentialsMillis;
+            this.expansionMillis = expansionMillis;
+            this.validationMillis = validationMillis;
+            this.uploadMillis = uploadMillis;
+            this.activationMillis = activationMillis;
+            this.bytesSent = bytesSent;
+        }
+
+        @NonNull
+        public String getApplicationId() {
+            return applicationId;
+        }
+
+        public long getCredentialsMillis() {
+            return credentialsMillis;
+        }
+
+        public long getExpansionMillis() {
+            return expansionMillis;
+        }
+
+        public long getValidationMillis() {
+            return validationMillis;
+        }
+
+        public long getUploadMillis() {
+            return uploadMillis;
+        }
+
+        public long getActivationMillis() {
+            return activationMillis;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getKilobytesSent() {
+            return bytesSent / 1024;
+        }
+
+        public long getTotalMillis() {
+            return credentialsMillis + expansionMillis + validationMillis + uploadMillis + activationMillis;
+        }
+    }
+
+    /**
+     * Adds a timing to a build on the master when invoked from an agent.
+     */
+    static final class RecordCallable implements hudson.remoting.Callable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String buildId;
+
+        private final Timing timing;
+
+        RecordCallable(String buildId, Timing timing) {
+            this.buildId = buildId;
+            this.timing = timing;
+        }
+
+        public Void call() throws IOException {
+            Run<?, ?> run = Run.fromExternalizableId(buildId);
+            if (run == null) {
+                LOGGER.log(Level.FINE, "Build {0} no longer exists, discarding deployment timing", buildId);
+                return null;
+            }
+            DeploymentTimingAction action;
+            synchronized (run) {
+                action = run.getAction(DeploymentTimingAction.class);
+                if (action == null) {
+                    action = new DeploymentTimingAction();
+                    run.addAction(action);
+                }
+            }
+            action.add(timing);
+            if (!run.isBuilding()) {
+                // e.g. a deploy now action, otherwise the build will be saved when it completes
+                run.save();
+            }
+            return null;
+        }
+    }
+}
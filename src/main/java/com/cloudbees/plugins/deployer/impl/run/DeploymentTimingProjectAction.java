@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.TransientProjectActionFactory;
+import hudson.util.ChartUtil;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.CategoryDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Charts the {@link DeploymentTimingAction} phases over the recent builds of a project.
+ *
+ * @since 6.1
+ */
+public class DeploymentTimingProjectAction implements Action {
+
+    /**
+     * The number of recent builds to chart, whether or not they deployed.
+     */
+    private static final int MAX_BUILDS = 30;
+
+    @NonNull
+    private final AbstractProject<?, ?> project;
+
+    public DeploymentTimingProjectAction(@NonNull AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    @NonNull
+    public AbstractProject<?, ?> getProject() {
+        return project;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDisplayName() {
+        return Messages.DeploymentTimingAction_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUrlName() {
+        return "deploymentTimings";
+    }
+
+    /**
+     * Returns the timings of the most recent of the charted builds that deployed, if any.
+     *
+     * @return the timings of the most recent of the charted builds that deployed or {@code null}.
+     */
+    @CheckForNull
+    public DeploymentTimingAction getLastTimings() {
+        int count = 0;
+        for (AbstractBuild<?, ?> build = project.getLastBuild(); build != null && count < MAX_BUILDS;
+             build = build.getPreviousBuild(), count++) {
+            DeploymentTimingAction action = build.getAction(DeploymentTimingAction.class);
+            if (action != null) {
+                return action;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders the trend graph.
+     *
+     * @param req the request.
+     * @param rsp the response.
+     * @throws IOException if the graph could not be written.
+     */
+    @SuppressWarnings("unused") // used by stapler
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        AbstractBuild<?, ?> lastBuild = project.getLastBuild();
+        if (lastBuild == null || getLastTimings() == null) {
+            rsp.setStatus(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        new Graph(lastBuild.getTimestamp(), 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                return createChart(createDataSet());
+            }
+        }.doPng(req, rsp);
+    }
+
+    private CategoryDataset createDataSet() {
+        DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> builder =
+                new DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel>();
+        int count = 0;
+        for (AbstractBuild<?, ?> build = project.getLastBuild(); build != null && count < MAX_BUILDS;
+             build = build.getPreviousBuild(), count++) {
+            DeploymentTimingAction action = build.getAction(DeploymentTimingAction.class);
+            if (action == null) {
+                continue;
+            }
+            DeploymentTimingAction.Timing total = action.getTotal();
+            ChartUtil.NumberOnlyBuildLabel label = new ChartUtil.NumberOnlyBuildLabel(build);
+            builder.add(total.getCredentialsMillis() / 1000.0, "Credentials", label);
+            builder.add(total.getExpansionMillis() / 1000.0, "Configuration", label);
+            builder.add(total.getValidationMillis() / 1000.0, "Validation", label);
+            builder.add(total.getUploadMillis() / 1000.0, "Upload", label);
+            builder.add(total.getActivationMillis() / 1000.0, "Activation", label);
+        }
+        return builder.build();
+    }
+
+    private static JFreeChart createChart(CategoryDataset dataset) {
+        JFreeChart chart = ChartFactory.createStackedAreaChart(null, null, "seconds", dataset,
+                PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.white);
+        CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setForegroundAlpha(0.8f);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.black);
+        CategoryAxis domainAxis = new ChartUtil.NoOverlapCategoryAxis(null);
+        plot.setDomainAxis(domainAxis);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+        return chart;
+    }
+
+    /**
+     * Adds the trend to projects. This is called whenever a project's actions are listed, so it does not load any
+     * builds: the trend only renders once {@link #getLastTimings()} finds that a recent build has deployed to
+     * RUN@cloud.
+     */
+    @Extension
+    @SuppressWarnings("unused")
+    public static class FactoryImpl extends TransientProjectActionFactory {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Collection<? extends Action> createFor(AbstractProject target) {
+            return Collections.singleton(new DeploymentTimingProjectAction(target));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link FilePart} that sends the file in slices of {@link #SLICE_SIZE} bytes, each of which is cleared with the
+ * {@link UploadBandwidthGovernor} before it is sent. The connection is only available as an {@link OutputStream}, so
+ * this is not a zero-copy transfer: every slice is read from the {@link FileChannel} into one buffer that is reused
+ * for the whole file, and the heap used by an upload is therefore independent of the size of the archive.
+ *
+ * @since 6.1
+ */
+class FileChannelPart extends FilePart {
+
+    /**
+     * The number of bytes read, cleared and written at a time, which also bounds how often progress is reported.
+     */
+    static final long SLICE_SIZE = 256 * 1024;
+
+    private final File file;
+
+    private final UploadBandwidthGovernor.Throttle throttle;
+
+    FileChannelPart(String name, File file, UploadBandwidthGovernor.Throttle throttle) throws FileNotFoundException {
+        super(name, file);
+        this.file = file;
+        this.throttle = throttle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void sendData(OutputStream out) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel source = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) SLICE_SIZE);
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(SLICE_SIZE, size - position));
+                throttle.acquire(buffer.remaining());
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Could not read " + file + " at offset " + position);
+                    }
+                }
+                out.write(buffer.array(), 0, buffer.limit());
+                position += buffer.limit();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
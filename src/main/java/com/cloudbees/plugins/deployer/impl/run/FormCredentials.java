@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import com.cloudbees.plugins.deployer.DeployNowRunAction;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.security.ACL;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.Stapler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the user named on the RUN@cloud configuration page for the form validation and fill end-points. Each
+ * field of each target asks for the same user, so the outcome, including the permission checks and a miss, is
+ * remembered for the current user and item for {@link #TTL}.
+ *
+ * @since 6.1
+ */
+final class FormCredentials {
+
+    /**
+     * How long a resolution may be reused for, in milliseconds.
+     */
+    private static final long TTL = Long.getLong(FormCredentials.class.getName() + ".TTL",
+            TimeUnit.SECONDS.toMillis(10));
+
+    /**
+     * The number of resolutions to remember.
+     */
+    private static final int MAX_ENTRIES = Integer.getInteger(FormCredentials.class.getName() + ".MAX_ENTRIES", 256);
+
+    /**
+     * The resolutions, least recently used first, guarded by itself.
+     */
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private FormCredentials() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Resolves a user for the item of the current request, first with the credentials of the current user when
+     * asked to and permitted, then with the credentials of the job when permitted.
+     *
+     * @param usersAuth non-empty to try the credentials of the current user.
+     * @param user      the name of the user.
+     * @return the user or {@code null} if it cannot be resolved.
+     */
+    @CheckForNull
+    static CloudBeesUser resolve(@CheckForNull String usersAuth, @CheckForNull String user) {
+        Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
+        if (item == null) {
+            return null;
+        }
+        boolean ownAuth = !StringUtils.isEmpty(usersAuth);
+        String key = Hudson.getAuthentication().getName() + "|" + item.getFullName() + "|" + ownAuth + "|" + user;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                return entry.user;
+            }
+        }
+        CloudBeesUser result = null;
+        if (ownAuth && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
+            result = CredentialsIndex.find(item, Hudson.getAuthentication(), user);
+        }
+        if (result == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
+            result = CredentialsIndex.find(item, ACL.SYSTEM, user);
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(result));
+        }
+        return result;
+    }
+
+    /**
+     * Forgets every resolution.
+     */
+    static void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+
+        @CheckForNull
+        private final CloudBeesUser user;
+
+        private final long expires = System.currentTimeMillis() + TTL;
+
+        private Entry(@CheckForNull CloudBeesUser user) {
+            this.user = user;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.deployer.NamedThreadFactory;
+import com.cloudbees.plugins.deployer.records.DeployedApplicationLocation;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.IOException2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deploys the targets of a single {@link RunHostImpl} concurrently on the master. The deployments are started up front
+ * within the configured window and {@link RunEngineImpl} then hands the deployer framework an {@link AwaitCallable}
+ * for each target, which collects the outcome in target order so that the framework records the locations exactly as
+ * it does for sequential deployments.
+ *
+ * @since 6.1
+ */
+final class ParallelDeployment {
+
+    /**
+     * The outcomes of the running parallel deployments keyed by token.
+     */
+    private static final Map<String, Future<DeployedApplicationLocation>> outcomes =
+            new ConcurrentHashMap<String, Future<DeployedApplicationLocation>>();
+
+    private final BuildListener listener;
+
+    private final boolean failFast;
+
+    private final ExecutorService executor;
+
+    /**
+     * Set once a target has failed when failing fast.
+     */
+    private volatile boolean failed;
+
+    /**
+     * The deployments in the order that they were submitted, guarded by itself.
+     */
+    private final List<Deployment> deployments = new ArrayList<Deployment>();
+
+    /**
+     * The deployments keyed by target, guarded by {@link #deployments}.
+     */
+    private final Map<RunTargetImpl, Deployment> byTarget = new IdentityHashMap<RunTargetImpl, Deployment>();
+
+    ParallelDeployment(@NonNull AbstractBuild<?, ?> build, @NonNull BuildListener listener, int parallelism,
+                       boolean failFast) {
+        this.listener = listener;
+        this.failFast = failFast;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+                new NamedThreadFactory("RunEngineImpl:" + build.getFullDisplayName(),
+                        new ExceptionCatchingThreadFactory(Executors.defaultThreadFactory())));
+    }
+
+    /**
+     * Creates a listener that prefixes each line with the name of a target.
+     *
+     * @param build the build.
+     * @param name  the name of the target.
+     * @return the listener.
+     */
+    @NonNull
+    BuildListener prefixed(@NonNull AbstractBuild<?, ?> build, @NonNull String name) {
+        Charset charset = build.getCharset();
+        try {
+            return new StreamBuildListener(new PrintStream(new LinePrefixOutputStream(listener.getLogger(),
+                    "[" + name + "] ", charset), true, charset.name()), charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("The charset of the build log is supported by definition", e);
+        }
+    }
+
+    /**
+     * Starts deploying a target.
+     *
+     * @param target   the target.
+     * @param name     the name of the target to use in the log.
+     * @param file     the application file.
+     * @param callable the deployment.
+     */
+    void submit(@NonNull RunTargetImpl target, @NonNull String name, @NonNull final FilePath file,
+                @NonNull final FilePath.FileCallable<DeployedApplicationLocation> callable) {
+        final Deployment deployment = new Deployment(name);
+        synchronized (deployments) {
+            deployments.add(deployment);
+            byTarget.put(target, deployment);
+        }
+        deployment.future = executor.submit(new java.util.concurrent.Callable<DeployedApplicationLocation>() {
+            public DeployedApplicationLocation call() throws Exception {
+                deployment.started = System.currentTimeMillis();
+                try {
+                    return file.act(callable);
+                } catch (Exception e) {
+                    if (failFast) {
+                        cancelOthers(deployment);
+                    }
+                    throw e;
+                } finally {
+                    deployment.completed = System.currentTimeMillis();
+                }
+            }
+        });
+        outcomes.put(deployment.token, deployment.future);
+        if (failed) {
+            deployment.future.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the deployer framework actor that collects the outcome of a target that was submitted.
+     *
+     * @param target the target.
+     * @return the actor or {@code null} if the target was not submitted.
+     */
+    @CheckForNull
+    FilePath.FileCallable<DeployedApplicationLocation> awaitActor(@NonNull RunTargetImpl target) {
+        synchronized (deployments) {
+            Deployment deployment = byTarget.get(target);
+            return deployment == null ? null : new AwaitCallable(deployment.token);
+        }
+    }
+
+    /**
+     * Waits for every submitted deployment to complete.
+     *
+     * @throws InterruptedException if interrupted.
+     */
+    void awaitAll() throws InterruptedException {
+        for (Deployment deployment : snapshot()) {
+            try {
+                deployment.future.get();
+            } catch (ExecutionException e) {
+                // reported by the summary and by the await actor
+            } catch (CancellationException e) {
+                // reported by the summary
+            }
+        }
+    }
+
+    /**
+     * Cancels anything still running and writes the per-target summary to the build log.
+     */
+    void close() {
+        executor.shutdownNow();
+        PrintStream logger = listener.getLogger();
+        logger.println("[cloudbees-deployer] Deployment summary:");
+        for (Deployment deployment : snapshot()) {
+            outcomes.remove(deployment.token);
+            String status;
+            if (!deployment.future.isDone()) {
+                status = "not started";
+            } else if (deployment.future.isCancelled()) {
+                status = "cancelled";
+            } else {
+                try {
+                    deployment.future.get();
+                    status = "succeeded";
+                } catch (ExecutionException e) {
+                    status = "failed: " + e.getCause().getMessage();
+                } catch (InterruptedException e) {
+                    status = "interrupted";
+                }
+            }
+            if (deployment.started == 0) {
+                logger.println(MessageFormat.format("[cloudbees-deployer]   {0}: {1}", deployment.name, status));
+            } else {
+                long end = deployment.completed == 0 ? System.currentTimeMillis() : deployment.completed;
+                logger.println(MessageFormat.format("[cloudbees-deployer]   {0}: {1} in {2,number,0.0} seconds",
+                        deployment.name, status, (end - deployment.started) / 1000.0));
+            }
+        }
+    }
+
+    private void cancelOthers(Deployment failure) {
+        failed = true;
+        for (Deployment deployment : snapshot()) {
+            if (deployment != failure && deployment.future != null) {
+                deployment.future.cancel(true);
+            }
+        }
+    }
+
+    private List<Deployment> snapshot() {
+        synchronized (deployments) {
+            return new ArrayList<Deployment>(deployments);
+        }
+    }
+
+    /**
+     * A single target's deployment.
+     */
+    private static final class Deployment {
+        private final String token = UUID.randomUUID().toString();
+        private final String name;
+        private volatile Future<DeployedApplicationLocation> future;
+        private volatile long started;
+        private volatile long completed;
+
+        private Deployment(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The actor handed to the deployer framework in place of the deployment itself.
+     */
+    static final class AwaitCallable implements FilePath.FileCallable<DeployedApplicationLocation> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+
+        AwaitCallable(String token) {
+            this.token = token;
+        }
+
+        public DeployedApplicationLocation invoke(File f, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            return RunEngineImpl.callOnMaster(channel, new OutcomeCallable(token));
+        }
+    }
+
+    /**
+     * Collects the outcome of a deployment on the master.
+     */
+    private static final class OutcomeCallable implements Callable<DeployedApplicationLocation, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+
+        private OutcomeCallable(String token) {
+            this.token = token;
+        }
+
+        public DeployedApplicationLocation call() throws IOException {
+            Future<DeployedApplicationLocation> future = outcomes.get(token);
+            if (future == null) {
+                throw new IOException("Unknown parallel deployment " + token);
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw new IOException2("Interrupted while waiting for deployment", e);
+            } catch (CancellationException e) {
+                throw new IOException2("Deployment was cancelled because another target failed", e);
+            } catch (ExecutionException e) {
+                throw new IOException2(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Writes complete lines to the underlying stream with a prefix so that the output of concurrent deployments does
+     * not interleave within a line.
+     */
+    private static final class LinePrefixOutputStream extends OutputStream {
+
+        private final PrintStream out;
+
+        private final byte[] prefix;
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private LinePrefixOutputStream(PrintStream out, String prefix, Charset charset) {
+            this.out = out;
+            this.prefix = prefix.getBytes(charset);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            line.write(b);
+            if (b == '\n') {
+                writeLine();
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n') {
+                    line.write(b, start, i + 1 - start);
+                    writeLine();
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, end - start);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (line.size() > 0) {
+                line.write('\n');
+                writeLine();
+            }
+        }
+
+        private void writeLine() {
+            synchronized (out) {
+                out.write(prefix, 0, prefix.length);
+                byte[] bytes = line.toByteArray();
+                out.write(bytes, 0, bytes.length);
+                out.flush();
+            }
+            line.reset();
+        }
+    }
+}
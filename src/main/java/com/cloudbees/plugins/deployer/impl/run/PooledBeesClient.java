@@ -0,0 +1,388 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.api.BeesClient;
+import com.cloudbees.api.BeesClientConfiguration;
+import com.cloudbees.api.UploadProgress;
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link BeesClient} that sends archive uploads through a shared, keep-alive {@link HttpClient} rather than
+ * opening a fresh connection for every deployment. Archives are streamed by {@link FileChannelPart}. Instances are
+ * handed out by {@link BeesClientRegistry}.
+ *
+ * @since 6.1
+ */
+class PooledBeesClient extends BeesClient {
+
+    private static final Logger LOGGER = Logger.getLogger(PooledBeesClient.class.getName());
+
+    /**
+     * The number of times an upload is attempted before giving up on transport failures. Only failures before the
+     * whole request body has been written are retried: once the server may have received the archive it may also
+     * have deployed it, and deploying again is not something we can do behind the user's back.
+     */
+    private static final int UPLOAD_ATTEMPTS =
+            Math.max(1, Integer.getInteger(PooledBeesClient.class.getName() + ".UPLOAD_ATTEMPTS", 3));
+
+    /**
+     * The delay before the first retry, doubled on each subsequent retry.
+     */
+    private static final long RETRY_BACKOFF =
+            Long.getLong(PooledBeesClient.class.getName() + ".RETRY_BACKOFF", TimeUnit.SECONDS.toMillis(1));
+
+    /**
+     * The maximum delay between retries.
+     */
+    private static final long MAX_RETRY_BACKOFF = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The socket send buffer requested for upload connections. A single stream cannot have more unacknowledged data
+     * in flight than its send buffer allows, so on high latency links a larger buffer is what lets one connection
+     * use the available bandwidth. Set to {@code 0} to use the operating system default.
+     */
+    private static final int SEND_BUFFER_SIZE =
+            Integer.getInteger(PooledBeesClient.class.getName() + ".SEND_BUFFER_SIZE", 1024 * 1024);
+
+    /**
+     * How long to wait for the response to an upload once the archive has been sent. The server still has to store
+     * and unpack the archive before responding, which can take a while for large applications.
+     */
+    private static final int RESPONSE_TIMEOUT = (int) Math.min(Integer.MAX_VALUE, Long.getLong(
+            PooledBeesClient.class.getName() + ".RESPONSE_TIMEOUT", TimeUnit.MINUTES.toMillis(30)));
+
+    /**
+     * How long sending the request body of an upload may take regardless of its size.
+     */
+    private static final long BASE_SEND_TIMEOUT = Long.getLong(
+            PooledBeesClient.class.getName() + ".BASE_SEND_TIMEOUT", TimeUnit.MINUTES.toMillis(2));
+
+    /**
+     * How much longer sending the request body of an upload may take for each megabyte uploaded.
+     */
+    private static final long SEND_TIMEOUT_PER_MB = Long.getLong(
+            PooledBeesClient.class.getName() + ".SEND_TIMEOUT_PER_MB", TimeUnit.SECONDS.toMillis(5));
+
+    /**
+     * The connection pool shared by all uploads through this client.
+     */
+    private final MultiThreadedHttpConnectionManager connectionManager;
+
+    /**
+     * The HTTP client backed by {@link #connectionManager}.
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * The number of uploads currently using this client, the registry will not evict a client that is busy.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The API end-point.
+     */
+    private final String server;
+
+    PooledBeesClient(BeesClientConfiguration configuration, String server, int maxConnectionsPerHost,
+                     int soTimeout) {
+        super(configuration);
+        this.server = server;
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        connectionManager.getParams().setMaxTotalConnections(maxConnectionsPerHost * 2);
+        connectionManager.getParams().setStaleCheckingEnabled(true);
+        if (SEND_BUFFER_SIZE > 0) {
+            connectionManager.getParams().setSendBufferSize(SEND_BUFFER_SIZE);
+        }
+        httpClient = new HttpClient(connectionManager);
+        if (soTimeout > 0) {
+            httpClient.getParams().setSoTimeout(soTimeout);
+        }
+        if (configuration.getProxyHost() != null) {
+            httpClient.getHostConfiguration().setProxy(configuration.getProxyHost(), configuration.getProxyPort());
+            if (configuration.getProxyUser() != null) {
+                httpClient.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(configuration.getProxyUser(),
+                                configuration.getProxyPassword()));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream executeUpload(String uploadURL, Map<String, String> params, Map<String, File> files,
+                                     UploadProgress writeListener) throws Exception {
+        inFlight.incrementAndGet();
+        UploadBandwidthGovernor.Throttle throttle = UploadBandwidthGovernor.open(server);
+        long size = 0;
+        for (File file : files.values()) {
+            size += file.length();
+        }
+        long sendTimeout = sendTimeout(size);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Map<String, String> clientParams = new HashMap<String, String>(getDefaultParameters());
+                clientParams.putAll(params);
+
+                PostMethod post = new PostMethod(uploadURL);
+                // we own the retry policy as the built-in one will not retry once the request body has been sent
+                post.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
+                        new DefaultHttpMethodRetryHandler(0, false));
+                post.getParams().setSoTimeout(RESPONSE_TIMEOUT);
+                UploadWatchdog watchdog = UploadWatchdog.start(post, throttle, sendTimeout);
+                try {
+                    List<Part> parts = new ArrayList<Part>();
+                    for (Map.Entry<String, File> entry : files.entrySet()) {
+                        parts.add(new FileChannelPart(entry.getKey(), entry.getValue(), throttle));
+                    }
+                    for (Map.Entry<String, String> entry : clientParams.entrySet()) {
+                        parts.add(new StringPart(entry.getKey(), entry.getValue()));
+                    }
+                    parts.add(new StringPart("sig", calculateSignature(clientParams)));
+                    ProgressRequestEntity entity = new ProgressRequestEntity(
+                            new MultipartRequestEntity(parts.toArray(new Part[parts.size()]), post.getParams()),
+                            writeListener, watchdog);
+                    post.setRequestEntity(entity);
+                    int status;
+                    try {
+                        status = httpClient.executeMethod(post);
+                    } catch (IOException e) {
+                        if (entity.isSent()) {
+                            throw new OutcomeUnknownException(uploadURL, e);
+                        }
+                        if (watchdog.isStalled() && writeListener instanceof UploadListener) {
+                            ((UploadListener) writeListener).handleStalled(attempt,
+                                    watchdog.getStalledIdleMillis(), watchdog.getStalledWindowMillis());
+                        }
+                        if (attempt >= UPLOAD_ATTEMPTS) {
+                            throw e;
+                        }
+                        long delay = Math.min(RETRY_BACKOFF << (attempt - 1), MAX_RETRY_BACKOFF);
+                        LOGGER.log(Level.FINE, "Upload attempt " + attempt + " to " + uploadURL + " failed", e);
+                        if (writeListener instanceof UploadListener) {
+                            ((UploadListener) writeListener).handleRetry(attempt, delay, e);
+                        }
+                        Thread.sleep(delay);
+                        continue;
+                    } finally {
+                        watchdog.stop();
+                    }
+                    // responses are small XML documents, buffer them so the connection can go back to the pool
+                    byte[] body = post.getResponseBody();
+                    if (status >= 300) {
+                        throw new IOException("Server at " + uploadURL + " responded with HTTP/" + status + ": "
+                                + (body == null ? "" : new String(body, "UTF-8")));
+                    }
+                    return new ByteArrayInputStream(body == null ? new byte[0] : body);
+                } finally {
+                    post.releaseConnection();
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            if (throttle.isLimited() && writeListener instanceof UploadListener) {
+                ((UploadListener) writeListener).handleThrottled(throttle.getThrottledMillis());
+            }
+        }
+    }
+
+    /**
+     * Returns how long sending the request body of an upload of the specified size may take, not counting the time
+     * spent held back by the {@link UploadBandwidthGovernor}.
+     *
+     * @param size the number of bytes being uploaded.
+     * @return the send timeout in milliseconds.
+     */
+    static long sendTimeout(long size) {
+        return BASE_SEND_TIMEOUT + SEND_TIMEOUT_PER_MB * (size / (1024 * 1024));
+    }
+
+    /**
+     * Returns {@code true} if an upload is currently using this client.
+     *
+     * @return {@code true} if an upload is currently using this client.
+     */
+    boolean isBusy() {
+        return inFlight.get() > 0;
+    }
+
+    /**
+     * Closes any pooled connections that have been idle for longer than the specified time.
+     *
+     * @param idleTimeout the idle time in milliseconds.
+     */
+    void closeIdleConnections(long idleTimeout) {
+        connectionManager.closeIdleConnections(idleTimeout);
+    }
+
+    /**
+     * Releases all pooled connections.
+     */
+    void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Signals that an upload failed after its whole request body had been written, so the server may or may not
+     * have deployed the archive. Such failures are not retried.
+     */
+    static class OutcomeUnknownException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        OutcomeUnknownException(String uploadURL, IOException cause) {
+            super("The archive was sent to " + uploadURL + " but no response was received, the deployment may or "
+                    + "may not have been applied: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Wraps a {@link MultipartRequestEntity} so that the SDK's {@link UploadProgress} callbacks keep working and the
+     * {@link UploadWatchdog} sees the progress.
+     */
+    private static class ProgressRequestEntity implements RequestEntity {
+
+        private final MultipartRequestEntity delegate;
+
+        private final UploadProgress progress;
+
+        private final UploadWatchdog watchdog;
+
+        private ProgressOutputStream stream;
+
+        ProgressRequestEntity(MultipartRequestEntity delegate, UploadProgress progress, UploadWatchdog watchdog) {
+            this.delegate = delegate;
+            this.progress = progress;
+            this.watchdog = watchdog;
+        }
+
+        public boolean isRepeatable() {
+            return delegate.isRepeatable();
+        }
+
+        public void writeRequest(OutputStream out) throws IOException {
+            stream = new ProgressOutputStream(out, progress, watchdog, getContentLength());
+            delegate.writeRequest(stream);
+        }
+
+        /**
+         * Returns {@code true} once every byte of the request body has been handed to the connection.
+         *
+         * @return {@code true} once every byte of the request body has been handed to the connection.
+         */
+        boolean isSent() {
+            return stream != null && stream.totalWritten >= stream.totalToSend;
+        }
+
+        public long getContentLength() {
+            return delegate.getContentLength();
+        }
+
+        public String getContentType() {
+            return delegate.getContentType();
+        }
+    }
+
+    /**
+     * Reports bytes as they are written to the connection.
+     */
+    private static class ProgressOutputStream extends OutputStream {
+
+        private final OutputStream delegate;
+
+        private final UploadProgress progress;
+
+        private final UploadWatchdog watchdog;
+
+        private final long totalToSend;
+
+        private long totalWritten;
+
+        ProgressOutputStream(OutputStream delegate, UploadProgress progress, UploadWatchdog watchdog,
+                             long totalToSend) {
+            this.delegate = delegate;
+            this.progress = progress;
+            this.watchdog = watchdog;
+            this.totalToSend = totalToSend;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            totalWritten++;
+            watchdog.progress(totalWritten, totalToSend);
+            if (progress != null) {
+                progress.handleBytesWritten(1, totalWritten, totalToSend);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            totalWritten += len;
+            watchdog.progress(totalWritten, totalToSend);
+            if (progress != null) {
+                progress.handleBytesWritten(len, totalWritten, totalToSend);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
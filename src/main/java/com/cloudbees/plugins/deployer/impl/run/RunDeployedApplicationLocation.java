@@ -37,13 +37,30 @@ public class RunDeployedApplicationLocation extends DeployedApplicationLocation
     private final String applicationId;
     private final String applicationEnvironment;
 
+    /**
+     * The digest of the deployed archive, {@code null} for locations recorded before it was tracked.
+     *
+     * @since 6.1
+     */
+    @CheckForNull
+    private final String archiveDigest;
+
     public RunDeployedApplicationLocation(@NonNull String applicationId, @NonNull String applicationEnvironment,
                                           @NonNull String appURL) {
+        this(applicationId, applicationEnvironment, appURL, null);
+    }
+
+    /**
+     * @since 6.1
+     */
+    public RunDeployedApplicationLocation(@NonNull String applicationId, @NonNull String applicationEnvironment,
+                                          @NonNull String appURL, @CheckForNull String archiveDigest) {
         super(appURL);
         applicationId.getClass(); // throw NPE if null
         applicationEnvironment.getClass(); // throw NPE if null
         this.applicationId = applicationId;
         this.applicationEnvironment = applicationEnvironment;
+        this.archiveDigest = archiveDigest;
     }
 
     public String getApplicationId() {
@@ -54,6 +71,17 @@ public class RunDeployedApplicationLocation extends DeployedApplicationLocation
         return applicationEnvironment;
     }
 
+    /**
+     * Returns the digest of the deployed archive, which identifies the archive when it is deployed again.
+     *
+     * @return the digest of the deployed archive or {@code null} if unknown.
+     * @since 6.1
+     */
+    @CheckForNull
+    public String getArchiveDigest() {
+        return archiveDigest;
+    }
+
     @Override
     public String getImageOf(@CheckForNull String size) {
         return "/plugin/cloudbees-deployer-plugin/images/" + (StringUtils.isBlank(size) ? "24x24" : size)
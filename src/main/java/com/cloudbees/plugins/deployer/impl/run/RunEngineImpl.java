@@ -27,12 +27,10 @@ package com.cloudbees.plugins.deployer.impl.run;
 import com.cloudbees.api.ApplicationDeployArchiveResponse;
 import com.cloudbees.api.ApplicationDeployArgs;
 import com.cloudbees.api.BeesClient;
-import com.cloudbees.api.BeesClientConfiguration;
-import com.cloudbees.api.UploadProgress;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
 import com.cloudbees.plugins.deployer.DeployEvent;
+import com.cloudbees.plugins.deployer.NamedThreadFactory;
 import com.cloudbees.plugins.deployer.engines.Engine;
 import com.cloudbees.plugins.deployer.engines.EngineConfiguration;
 import com.cloudbees.plugins.deployer.engines.EngineFactory;
@@ -40,21 +38,22 @@ import com.cloudbees.plugins.deployer.engines.EngineFactoryDescriptor;
 import com.cloudbees.plugins.deployer.exceptions.DeployException;
 import com.cloudbees.plugins.deployer.hosts.DeployHost;
 import com.cloudbees.plugins.deployer.records.DeployedApplicationLocation;
+import com.cloudbees.plugins.deployer.sources.DeploySource;
+import com.cloudbees.plugins.deployer.sources.DeploySourceOrigin;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.FilePath;
-import hudson.ProxyConfiguration;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Cause;
-import hudson.model.Hudson;
+import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.IOException2;
-import hudson.util.TimeUnit2;
 import net.jcip.annotations.Immutable;
 import org.acegisecurity.Authentication;
-import org.apache.commons.httpclient.params.HttpClientParams;
 import org.apache.commons.io.FilenameUtils;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 
@@ -62,10 +61,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The {@link com.cloudbees.plugins.deployer.engines.Engine} for deploying to CloudBees RUN@cloud.
@@ -73,21 +85,74 @@ import java.util.concurrent.TimeUnit;
 @SuppressWarnings("unused")
 public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
 
+    private static final Logger LOGGER = Logger.getLogger(RunEngineImpl.class.getName());
+
+    /**
+     * Whether to recognise the deployment of an archive that was deployed before the current one as a rollback,
+     * which is then sent as a delta when the target allows delta deployment. Off by default as it means computing
+     * the digest of every archive. Not final so that it can be changed from the script console.
+     */
+    public static boolean DETECT_ROLLBACKS = Boolean.getBoolean(RunEngineImpl.class.getName() + ".DETECT_ROLLBACKS");
+
+    /**
+     * Whether a deployment to an existing application should give the build back as soon as the archive has been
+     * sent, leaving the wait for the server to activate it to a background thread, see
+     * {@link ActivationStatusAction}.
+     */
+    static final boolean ASYNC_ACTIVATION =
+            Boolean.getBoolean(RunEngineImpl.class.getName() + ".ASYNC_ACTIVATION");
+
     private final CloudBeesUser user;
     private final CloudBeesAccount account;
 
+    /**
+     * The targets being deployed in parallel, only set while {@link #perform()} is deploying in parallel.
+     */
+    @CheckForNull
+    private transient ParallelDeployment parallel;
+
+    /**
+     * Probes the deployed applications, only set while {@link #perform()} is deploying targets that want probing.
+     */
+    @CheckForNull
+    private transient WarmUp warmUp;
+
+    /**
+     * How long it took to resolve the credentials.
+     */
+    private final long credentialsMillis;
+
+    /**
+     * Set once {@link #credentialsMillis} has been charged to a deployment, as it is shared by all the targets.
+     */
+    private final transient AtomicBoolean credentialsCharged = new AtomicBoolean();
+
+    /**
+     * How long the most recent validation took.
+     */
+    private transient long validationMillis;
+
+    /**
+     * The probe of each archive validated so far, keyed by path, so that each archive is only probed once per
+     * deployment.
+     */
+    private final transient Map<String, ArchiveProbe> probes = new HashMap<String, ArchiveProbe>();
+
+    /**
+     * The probe of the most recently validated archive.
+     */
+    @CheckForNull
+    private transient ArchiveProbe lastProbe;
+
     protected RunEngineImpl(EngineConfiguration<RunHostImpl, RunTargetImpl> factory)
             throws DeployException {
         super(factory);
+        long start = System.nanoTime();
         CloudBeesUser user = null;
-        authenticationSearch:
         for (Authentication authentication : deployAuthentications) {
-            for (CloudBeesUser u : CredentialsProvider
-                    .lookupCredentials(CloudBeesUser.class, deployScope, authentication)) {
-                if (u.getName().equals(set.getUser())) {
-                    user = u;
-                    break authenticationSearch;
-                }
+            user = CredentialsIndex.find(deployScope, authentication, set.getUser());
+            if (user != null) {
+                break;
             }
         }
         if (user == null) {
@@ -102,9 +167,18 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
         }
         this.user = user;
         this.account = account;
+        this.credentialsMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Runs a callable on the master, either directly when already on the master or over the back-channel.
+     */
+    static <V, T extends Throwable> V callOnMaster(VirtualChannel channel, Callable<V, T> callable)
+            throws T, IOException, InterruptedException {
+        return channel == null ? callable.call() : channel.call(callable);
     }
 
-    private static String toUsAscii(String s) {
+    static String toUsAscii(String s) {
         try {
             byte[] src = com.ibm.icu.text.Normalizer.normalize(s, com.ibm.icu.text.Normalizer.NFD).getBytes("US-ASCII");
             byte[] dst = new byte[src.length];
@@ -120,26 +194,155 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean perform() throws Throwable {
+        List<RunTargetImpl> targets = set.getTargets();
+        for (RunTargetImpl target : targets) {
+            if (target.isProbeAfterDeploy()) {
+                warmUp = WarmUp.open(build, listener);
+                break;
+            }
+        }
+        try {
+            return performDeployments(targets);
+        } finally {
+            if (warmUp != null) {
+                warmUp.close();
+                warmUp = null;
+            }
+        }
+    }
+
+    private boolean performDeployments(List<RunTargetImpl> targets) throws Throwable {
+        if (set.getParallelism() <= 1 || targets.size() <= 1) {
+            return super.perform();
+        }
+        log(MessageFormat.format("Deploying {0} targets with up to {1} in parallel", targets.size(),
+                set.getParallelism()));
+        parallel = new ParallelDeployment(build, listener, set.getParallelism(), !set.isBestEffort());
+        try {
+            // validate every target before starting any, so that a broken archive does not leave a partial rollout
+            List<RunTargetImpl> submitted = new ArrayList<RunTargetImpl>();
+            List<String> names = new ArrayList<String>();
+            List<FilePath> files = new ArrayList<FilePath>();
+            List<DeployFileCallable> callables = new ArrayList<DeployFileCallable>();
+            for (RunTargetImpl target : targets) {
+                FilePath applicationFile = getApplicationFile(target);
+                if (applicationFile != null) {
+                    validate(applicationFile);
+                    String name = target.getApplicationId(build, listener);
+                    submitted.add(target);
+                    names.add(name);
+                    files.add(applicationFile);
+                    callables.add(newDeployFileCallable(target, parallel.prefixed(build, name)));
+                }
+            }
+            for (int i = 0; i < submitted.size(); i++) {
+                parallel.submit(submitted.get(i), names.get(i), files.get(i), callables.get(i));
+            }
+            if (set.isBestEffort()) {
+                parallel.awaitAll();
+            }
+            return super.perform();
+        } finally {
+            parallel.close();
+            parallel = null;
+        }
+    }
+
+    /**
+     * Resolves the application file of a target the same way that the deployer framework does.
+     *
+     * @param target the target.
+     * @return the application file or {@code null} if it cannot be found, in which case the framework will report it.
+     */
+    @CheckForNull
+    private FilePath getApplicationFile(RunTargetImpl target) throws IOException, InterruptedException {
+        DeploySource source = target.getArtifact();
+        if (source == null) {
+            return null;
+        }
+        if (sources.contains(DeploySourceOrigin.RUN)) {
+            File file = source.getApplicationFile(build);
+            if (file != null) {
+                return new FilePath(file);
+            }
+        }
+        if (sources.contains(DeploySourceOrigin.WORKSPACE)) {
+            FilePath workspace = build.getWorkspace();
+            if (workspace != null) {
+                return source.getApplicationFile(workspace);
+            }
+        }
+        return null;
+    }
+
     @Override
     public void validate(FilePath applicationFile) throws DeployException {
+        long start = System.nanoTime();
         try {
-            if (!Boolean.TRUE.equals(applicationFile.act(new IsFileCallable()))) {
-                throw new DeployException("Not a valid archive for deployment: " + applicationFile);
+            ArchiveProbe probe = probes.get(applicationFile.getRemote());
+            if (probe == null) {
+                probe = applicationFile.act(new ArchiveProbe.ProbeCallable(isRecordingDigests()));
+                probes.put(applicationFile.getRemote(), probe);
             }
+            checkProbe(probe, applicationFile);
         } catch (InterruptedException e) {
             throw new DeployException(e.getMessage(), e);
         } catch (IOException e) {
             throw new DeployException(e.getMessage(), e);
+        } finally {
+            validationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
         }
     }
 
     @Override
     public void validate(File applicationFile) throws DeployException {
-        if (!applicationFile.isFile()) {
-            throw new DeployException("Not a valid archive for deployment: " + applicationFile);
+        long start = System.nanoTime();
+        try {
+            ArchiveProbe probe = probes.get(applicationFile.getPath());
+            if (probe == null) {
+                probe = ArchiveProbe.probe(applicationFile, isRecordingDigests());
+                probes.put(applicationFile.getPath(), probe);
+            }
+            checkProbe(probe, applicationFile);
+        } catch (InterruptedException e) {
+            throw new DeployException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new DeployException(e.getMessage(), e);
+        } finally {
+            validationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
         }
     }
 
+    /**
+     * Returns {@code true} if a target of this host uses the digests of the archives, which means reading each whole
+     * archive and is only worth it when something uses them.
+     */
+    private boolean isRecordingDigests() {
+        if (DETECT_ROLLBACKS) {
+            return true;
+        }
+        for (RunTargetImpl target : set.getTargets()) {
+            if (target.isSkipUnchanged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkProbe(ArchiveProbe probe, Object applicationFile) throws DeployException {
+        lastProbe = null;
+        if (!probe.isValid()) {
+            throw new DeployException("Not a valid archive for deployment: " + applicationFile
+                    + (probe.getProblem() == null ? "" : " (" + probe.getProblem() + ")"));
+        }
+        lastProbe = probe;
+    }
+
     @Override
     public DeployEvent createEvent(RunTargetImpl target) throws DeployException {
         try {
@@ -158,9 +361,14 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
     @Override
     protected FilePath.FileCallable<DeployedApplicationLocation> newDeployActor(RunTargetImpl target)
             throws DeployException {
+        if (parallel != null) {
+            FilePath.FileCallable<DeployedApplicationLocation> actor = parallel.awaitActor(target);
+            if (actor != null) {
+                return actor;
+            }
+        }
         try {
-            return new DeployFileCallable(build, listener, user, account, target,
-                    target.getApplicationConfigMap(build, listener));
+            return newDeployFileCallable(target, listener);
         } catch (InterruptedException e) {
             throw new DeployException("Deployment interrupted", e);
         } catch (IOException e) {
@@ -172,6 +380,23 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
         }
     }
 
+    /**
+     * Creates the deployment of a target, timing the expansion of its configuration.
+     */
+    private DeployFileCallable newDeployFileCallable(RunTargetImpl target, BuildListener listener)
+            throws MacroEvaluationException, IOException, InterruptedException {
+        long start = System.nanoTime();
+        DeployFileCallable callable = new DeployFileCallable(build, listener, user, account, target,
+                target.getApplicationConfigMap(build, this.listener));
+        callable.setMasterTimings(credentialsCharged.getAndSet(true) ? 0 : credentialsMillis,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), validationMillis);
+        callable.setProbe(lastProbe);
+        if (warmUp != null && target.isProbeAfterDeploy()) {
+            callable.setWarmUp(warmUp.getToken(), target.getWarmUpPaths());
+        }
+        return callable;
+    }
+
     @Override
     public void logDetails() {
         log("Deploying as " + set.getUser() + " to the " + set.getAccount() + " account");
@@ -290,6 +515,12 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
 
         private static final long serialVersionUID = 1L;
 
+        /**
+         * The threads waiting for activations that continue after the build has moved on.
+         */
+        private static final ExecutorService activations = Executors.newCachedThreadPool(
+                new NamedThreadFactory("RunEngineImpl:activation", new DaemonThreadFactory()));
+
         private final BuildListener listener;
         private final String apiKey;
         private final String secret;
@@ -302,6 +533,20 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
         private final Map<String, String> clickStackConfig;
         private final boolean deltaDeployment;
         private final Map<String, String> clickStackRuntimeConfig;
+        private final boolean recordDigest;
+        private final String indexKey;
+        private final String settingsDigest;
+        private final DeploymentDigestIndex.Record previous;
+        private final ArrayList<DeploymentDigestIndex.Record> history;
+        private final String accountName;
+        private final String jobName;
+        private final String buildId;
+        private long credentialsMillis;
+        private long expansionMillis;
+        private long validationMillis;
+        private ArchiveProbe probe;
+        private String warmUpToken;
+        private ArrayList<String> warmUpPaths;
 
         public DeployFileCallable(AbstractBuild<?, ?> build, BuildListener listener, CloudBeesUser user,
                                   CloudBeesAccount account, RunTargetImpl target, Map<String, String> config)
@@ -314,30 +559,96 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
             environment = target.getApplicationEnvironment(build, listener);
             description = target.getDeploymentDescription(build, listener);
             appId = account.getName() + "/" + target.getApplicationId(build, listener);
+            accountName = account.getName();
+            jobName = build.getParent().getFullName();
+            buildId = build.getExternalizableId();
             clickStackName = target.getClickStackName(build, listener);
             clickStackConfig = target.getClickStackConfigMap(build, listener);
             clickStackRuntimeConfig = target.getClickStackRuntimeConfigMap(build, listener);
             deltaDeployment = target.isDeltaDeployment();
+            indexKey = DeploymentDigestIndex.key(server, appId, environment);
+            settingsDigest = settingsDigest(this.config, clickStackName, clickStackConfig, clickStackRuntimeConfig);
+            recordDigest = target.isSkipUnchanged() || DETECT_ROLLBACKS;
+            previous = target.isSkipUnchanged() ? DeploymentDigestIndex.get().lookup(indexKey) : null;
+            history = new ArrayList<DeploymentDigestIndex.Record>(DETECT_ROLLBACKS
+                    ? DeploymentDigestIndex.get().history(indexKey)
+                    : Collections.<DeploymentDigestIndex.Record>emptyList());
+        }
+
+        /**
+         * Sets the timings of the phases that happen on the master before the deployment is invoked.
+         */
+        void setMasterTimings(long credentialsMillis, long expansionMillis, long validationMillis) {
+            this.credentialsMillis = credentialsMillis;
+            this.expansionMillis = expansionMillis;
+            this.validationMillis = validationMillis;
+        }
+
+        /**
+         * Sets what validation found out about the archive, so that the node need not be asked again.
+         */
+        void setProbe(ArchiveProbe probe) {
+            this.probe = probe;
+        }
+
+        /**
+         * Asks for the deployed application to be probed by a {@link WarmUp} on the master.
+         */
+        void setWarmUp(String token, List<String> paths) {
+            this.warmUpToken = token;
+            this.warmUpPaths = new ArrayList<String>(paths);
+        }
+
+        /**
+         * Computes a digest of the settings that affect the deployed application.
+         */
+        private static String settingsDigest(Map<String, String> config, String clickStackName,
+                                             Map<String, String> clickStackConfig,
+                                             Map<String, String> clickStackRuntimeConfig) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("config=").append(config == null ? null : new TreeMap<String, String>(config));
+            sb.append(", clickStackName=").append(clickStackName);
+            sb.append(", clickStackConfig=").append(new TreeMap<String, String>(clickStackConfig));
+            sb.append(", clickStackRuntimeConfig=").append(new TreeMap<String, String>(clickStackRuntimeConfig));
+            return Util.getDigestOf(sb.toString());
         }
 
         public DeployedApplicationLocation invoke(File f, VirtualChannel channel)
                 throws IOException, InterruptedException {
             listener.getLogger().println("[cloudbees-deployer] Deploying via API server at " + server);
-            DeployedApplicationLocation result = null;
+            boolean probed = probe != null && probe.isCurrent(f);
+            String archiveDigest = !recordDigest
+                    ? null
+                    : probed && probe.getDigest() != null ? probe.getDigest() : ArchiveDigestCache.digestOf(f);
+            if (previous != null && archiveDigest != null && archiveDigest.equals(previous.getArchiveDigest())
+                    && settingsDigest.equals(previous.getSettingsDigest())) {
+                listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] Archive and settings are "
+                        + "unchanged since the deployment of {0} on {1,date} {1,time}, skipping upload",
+                        previous.getApplicationId(), new Date(previous.getTimestamp())));
+                listener.getLogger().println(
+                        MessageFormat.format("[cloudbees-deployer] Can be accessed at {0}", previous.getUrl()));
+                recordTiming(channel, 0, 0, 0);
+                callOnMaster(channel, new DeploymentMetrics.SkippedCallable());
+                return new RunDeployedApplicationLocation(previous.getApplicationId(), environment,
+                        previous.getUrl(), archiveDigest);
+            }
             String description = this.description;
-            BeesClientConfiguration clientConfig = new BeesClientConfiguration(server, apiKey, secret, "xml", "1.0");
-            if (Hudson.getInstance() != null && Hudson.getInstance().proxy != null) {
-                final ProxyConfiguration proxy = Hudson.getInstance().proxy;
-                clientConfig.setProxyHost(proxy.name);
-                clientConfig.setProxyPort(proxy.port);
-                clientConfig.setProxyUser(proxy.getUserName());
-                clientConfig.setProxyPassword(proxy.getPassword());
-            }
-            HttpClientParams httpClientParams = new HttpClientParams();
-            httpClientParams.setSoTimeout((int) TimeUnit2.MINUTES.toMillis(30)); // Fabian says use 30 min
-            clientConfig.setHttpClientParams(httpClientParams);
-            BeesClient client = new BeesClient(clientConfig);
+            DeploymentScheduler.Admission admission = null;
+            File delta = null;
+            Activation activation = null;
+            long started = System.nanoTime();
             try {
+                // taken inside the try so that nothing can leak the slot until the lease times out
+                admission = callOnMaster(channel,
+                        new DeploymentScheduler.AcquireCallable(accountName, server, environment, jobName));
+                started = System.nanoTime();
+                if (admission.getWaitMillis() >= TimeUnit.SECONDS.toMillis(1)) {
+                    listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] Waited {0} seconds for "
+                            + "a deployment slot on the {1} account", TimeUnit.MILLISECONDS.toSeconds(
+                            admission.getWaitMillis()), accountName));
+                }
+                // the send timeout scales with the archive, see PooledBeesClient.sendTimeout
+                BeesClient client = BeesClientRegistry.get(server, apiKey, secret);
                 String description1 = toUsAscii(description);
                 if (!description.equals(description1)) {
                     listener.getLogger().println("[cloudbees-deployer] Description '" + description
@@ -361,38 +672,287 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
                     }
                 }
 
+                String extension = FilenameUtils.getExtension(f.getPath());
+                boolean useDelta = deltaDeployment && !"ear".equalsIgnoreCase(extension);
+                DeploymentDigestIndex.Record rollback = findRollback(archiveDigest);
+                if (rollback != null) {
+                    // a target with delta deployment turned off has it off for a reason, rollbacks included
+                    listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] This archive was "
+                            + "deployed to {0} on {1,date} {1,time}{2}, {3}", rollback.getApplicationId(),
+                            new Date(rollback.getTimestamp()),
+                            rollback.getBuildId() == null ? "" : " by " + rollback.getBuildId(),
+                            useDelta
+                                    ? "rolling back with a delta deployment so that only the entries that differ "
+                                    + "from the current deployment are uploaded"
+                                    : "rolling back"));
+                }
+                if (useDelta) {
+                    delta = createDelta(client, f, extension);
+                }
+                File archive = delta == null ? f : delta;
+
+                ConsoleListenerUploadProgress progress = new ConsoleListenerUploadProgress(listener,
+                        archive == f && probed ? probe.getLength() : archive.length());
+                String pendingUrl = ASYNC_ACTIVATION ? currentUrl(client) : null;
+
                 ApplicationDeployArgs deployArgs = new ApplicationDeployArgs.Builder(appId)
                         .environment(environment)
                         .description(description)
-                        .deployPackage(f, FilenameUtils.getExtension(f.getPath()))
+                        .deployPackage(archive, extension)
                         .srcFile((File) null)
-                        .incrementalDeployment(deltaDeployment)
+                        // a fallback to the full archive must not be delta'd again by the SDK
+                        .incrementalDeployment(delta != null)
                         .withVars(config)
                         .withParams(parameters)
-                        .withProgressFeedback(new ConsoleListenerUploadProgress(listener, f.length()))
+                        .withProgressFeedback(progress)
                         .build();
-                ApplicationDeployArchiveResponse response = client.applicationDeployArchive(deployArgs);
-                result = new RunDeployedApplicationLocation(response.getId(), environment, response.getUrl());
-                listener.getLogger().println(
-                        MessageFormat.format("[cloudbees-deployer] Deployed to application id {0}", response.getId()));
-                listener.getLogger()
-                        .println(
-                                MessageFormat.format("[cloudbees-deployer] Can be accessed at {0}", response.getUrl()));
+                activation = new Activation(channel, client, deployArgs, progress, delta, admission, archiveDigest,
+                        pendingUrl);
+                if (pendingUrl == null) {
+                    return activation.call();
+                }
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
                 throw new IOException2(e.getMessage(), e);
+            } finally {
+                if (activation == null && admission != null) {
+                    // the activation cleans up after itself once it has been created
+                    release(channel, delta, admission, false, started, 0);
+                }
             }
-            return result;
+            return activation.detach();
         }
 
-    }
+        /**
+         * Returns the past deployment of the same archive, if any, which makes this deployment a rollback.
+         */
+        @CheckForNull
+        private DeploymentDigestIndex.Record findRollback(@CheckForNull String archiveDigest) {
+            if (archiveDigest == null) {
+                return null;
+            }
+            // the most recent deployment is the one being replaced, not one being rolled back to
+            for (int i = 1; i < history.size(); i++) {
+                if (archiveDigest.equals(history.get(i).getArchiveDigest())) {
+                    return history.get(i);
+                }
+            }
+            return null;
+        }
 
-    private static class ConsoleListenerUploadProgress
-            implements UploadProgress {
-        private long lastSignificant = 0;
-        private long lastValue = -1;
-        private String lastUnits = null;
+        /**
+         * Returns the URL of the application if it already exists, in which case its location is known before the
+         * deployment completes.
+         */
+        @CheckForNull
+        private String currentUrl(BeesClient client) {
+            try {
+                String[] urls = client.applicationInfo(appId).getUrls();
+                return urls == null || urls.length == 0 ? null : urls[0];
+            } catch (Exception e) {
+                // most likely a new application, which will be deployed synchronously
+                return null;
+            }
+        }
 
-        private long nextProgress = Long.MIN_VALUE;
+        /**
+         * Releases what a deployment holds on the master and records its outcome.
+         */
+        private void release(VirtualChannel channel, File delta, DeploymentScheduler.Admission admission,
+                             boolean succeeded, long started, long bytesSent)
+                throws IOException, InterruptedException {
+            if (delta != null && !delta.delete()) {
+                delta.deleteOnExit();
+            }
+            callOnMaster(channel, new DeploymentScheduler.ReleaseCallable(admission.getId()));
+            callOnMaster(channel, new DeploymentMetrics.CompletedCallable(server, accountName, succeeded,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), bytesSent));
+        }
+
+        /**
+         * Sends the archive and waits for the server to activate it. In asynchronous mode the build only waits for
+         * the upload; the wait for the server continues on a background thread of the node and the outcome is
+         * recorded in the {@link ActivationStatusAction} of the build.
+         */
+        private final class Activation implements java.util.concurrent.Callable<DeployedApplicationLocation> {
+
+            private final VirtualChannel channel;
+            private final BeesClient client;
+            private final ApplicationDeployArgs deployArgs;
+            private final ConsoleListenerUploadProgress progress;
+            private final File delta;
+            private final DeploymentScheduler.Admission admission;
+            private final String archiveDigest;
+            @CheckForNull
+            private final String pendingUrl;
+            private final long uploadStarted = System.nanoTime();
+            private final AtomicLong uploadCompleted = new AtomicLong();
+            private final CountDownLatch uploaded = new CountDownLatch(1);
+
+            private Activation(VirtualChannel channel, BeesClient client, ApplicationDeployArgs deployArgs,
+                               ConsoleListenerUploadProgress progress, File delta,
+                               DeploymentScheduler.Admission admission, String archiveDigest, String pendingUrl) {
+                this.channel = channel;
+                this.client = client;
+                this.deployArgs = deployArgs;
+                this.progress = progress;
+                this.delta = delta;
+                this.admission = admission;
+                this.archiveDigest = archiveDigest;
+                this.pendingUrl = pendingUrl;
+                progress.addObserver(new UploadProgressTracker.Observer() {
+                    public void uploadProgress(@NonNull UploadStatistics statistics) {
+                    }
+
+                    public void uploadCompleted(@NonNull UploadStatistics statistics) {
+                        uploadCompleted.set(System.nanoTime());
+                        uploaded.countDown();
+                    }
+                });
+            }
+
+            public DeployedApplicationLocation call() throws Exception {
+                DeployedApplicationLocation result = null;
+                long bytesSent = 0;
+                try {
+                    ApplicationDeployArchiveResponse response = client.applicationDeployArchive(deployArgs);
+                    long now = System.nanoTime();
+                    long sent = uploadCompleted.get() == 0 ? now : uploadCompleted.get();
+                    bytesSent = progress.getStatistics().getBytesWritten();
+                    recordTiming(channel, TimeUnit.NANOSECONDS.toMillis(sent - uploadStarted),
+                            TimeUnit.NANOSECONDS.toMillis(now - sent), bytesSent);
+                    result = new RunDeployedApplicationLocation(response.getId(), environment, response.getUrl(),
+                            archiveDigest);
+                    if (archiveDigest != null) {
+                        callOnMaster(channel, new DeploymentDigestIndex.RecordCallable(indexKey,
+                                new DeploymentDigestIndex.Record(archiveDigest, settingsDigest, response.getId(),
+                                        response.getUrl(), System.currentTimeMillis(), buildId)));
+                    }
+                    progress.log(MessageFormat.format(
+                            "[cloudbees-deployer] Deployed to application id {0}", response.getId()));
+                    progress.log(MessageFormat.format("[cloudbees-deployer] Can be accessed at {0}",
+                            response.getUrl()));
+                    if (pendingUrl != null) {
+                        recordStatus(ActivationStatusAction.State.ACTIVE, response.getUrl());
+                    }
+                    if (warmUpToken != null) {
+                        callOnMaster(channel, new WarmUp.StartCallable(warmUpToken, response.getId(),
+                                response.getUrl(), warmUpPaths));
+                    }
+                    return result;
+                } catch (Exception e) {
+                    if (pendingUrl != null) {
+                        recordStatus(ActivationStatusAction.State.FAILED, e.getMessage());
+                    }
+                    throw e;
+                } finally {
+                    release(channel, delta, admission, result != null, uploadStarted, bytesSent);
+                }
+            }
+
+            /**
+             * Runs the deployment in the background and waits until either the archive has been sent or the
+             * deployment is over. The upload completes once the last byte of the request body has been written,
+             * after which {@link PooledBeesClient} never retries, so the archive is not read again once we return
+             * and the build is free to change it. From then on the background thread only reports through the
+             * {@link ActivationStatusAction}, the build log may already be closed.
+             */
+            private DeployedApplicationLocation detach() throws IOException, InterruptedException {
+                // recorded up front so that it can never overwrite the outcome recorded by the background thread
+                recordStatus(ActivationStatusAction.State.ACTIVATING, null);
+                Future<DeployedApplicationLocation> future = activations.submit(this);
+                try {
+                    while (!uploaded.await(1, TimeUnit.SECONDS)) {
+                        if (future.isDone()) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    future.cancel(true);
+                    throw e;
+                }
+                if (future.isDone()) {
+                    try {
+                        return future.get();
+                    } catch (ExecutionException e) {
+                        throw new IOException2(e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                progress.log(MessageFormat.format("[cloudbees-deployer] Archive sent, the activation of {0} "
+                        + "continues in the background and its outcome will be recorded on the build", appId));
+                progress.detach();
+                return new RunDeployedApplicationLocation(appId, environment, pendingUrl, archiveDigest);
+            }
+
+            private void recordStatus(ActivationStatusAction.State state, String message) {
+                try {
+                    callOnMaster(channel, new ActivationStatusAction.RecordCallable(buildId,
+                            new ActivationStatusAction.Status(appId, state, message)));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Could not record the activation status of " + appId, e);
+                }
+            }
+        }
+
+        /**
+         * Records the timing of this deployment against the build.
+         */
+        private void recordTiming(VirtualChannel channel, long uploadMillis, long activationMillis, long bytesSent)
+                throws IOException, InterruptedException {
+            callOnMaster(channel, new DeploymentTimingAction.RecordCallable(buildId,
+                    new DeploymentTimingAction.Timing(appId, credentialsMillis, expansionMillis, validationMillis,
+                            uploadMillis, activationMillis, bytesSent)));
+        }
+
+        /**
+         * Builds an archive holding only the entries that differ from the currently deployed application.
+         *
+         * @param client    the client.
+         * @param archive   the full archive.
+         * @param extension the archive type.
+         * @return the delta archive or {@code null} if the full archive should be uploaded.
+         * @throws Exception if something went wrong.
+         */
+        private File createDelta(BeesClient client, File archive, String extension) throws Exception {
+            Map<String, Long> checkSums = client.applicationCheckSums(appId).getCheckSums();
+            if (checkSums == null || checkSums.isEmpty()) {
+                listener.getLogger().println("[cloudbees-deployer] No checksums available for the current "
+                        + "deployment, uploading the full archive");
+                return null;
+            }
+            DeltaArchive plan = DeltaArchive.plan(archive, checkSums);
+            if (!plan.isApplicable()) {
+                listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] {0} entries have been "
+                        + "removed since the current deployment, uploading the full archive",
+                        plan.getRemovedCount()));
+                return null;
+            }
+            if (plan.getChangedCount() == 0) {
+                // an empty delta would leave nothing for the server to deploy
+                listener.getLogger().println("[cloudbees-deployer] No entries have changed since the current "
+                        + "deployment, uploading the full archive");
+                return null;
+            }
+            listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] Delta deployment: {0} of {1} "
+                    + "entries changed ({2} KB of {3} KB)", plan.getChangedCount(),
+                    plan.getChangedCount() + plan.getUnchangedCount(), plan.getChangedBytes() / 1024,
+                    plan.getTotalBytes() / 1024));
+            File file = File.createTempFile("cloudbees-deployer-delta", "." + extension);
+            try {
+                plan.write(archive, file);
+            } catch (IOException e) {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                throw e;
+            }
+            return file;
+        }
+
+    }
+
+    static class ConsoleListenerUploadProgress extends UploadProgressTracker {
 
         private static long ONE_K = 1024L;
 
@@ -400,41 +960,75 @@ public class RunEngineImpl extends Engine<RunHostImpl, RunTargetImpl> {
 
         private final long length;
 
+        /**
+         * Set once the build has moved on without waiting for the deployment, guarded by {@code this}.
+         */
+        private boolean detached;
+
         ConsoleListenerUploadProgress(BuildListener buildListener, long length) {
             this.listener = buildListener;
             this.length = length;
         }
 
-        public synchronized void handleBytesWritten(long deltaCount, long totalWritten, long totalToSend) {
-            // output progress every 5% or 30s
-            if (lastSignificant + Math.max(length / 20, 512) < totalWritten
-                    || nextProgress < System.currentTimeMillis()) {
-                long value;
-                String units;
-                if (Math.max(totalWritten, length) <= ONE_K * 8) {
-                    value = totalWritten;
-                    units = "B";
-                } else if (Math.max(totalWritten, length) < ONE_K * ONE_K * 8) {
-                    value = totalWritten / ONE_K;
-                    units = "KB";
-                } else {
-                    value = totalWritten / ONE_K / ONE_K;
-                    units = "MB";
-                }
-                if (value != lastValue || !units.equals(lastUnits)) {
-                    listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] {0} {1}", value, units));
-                    lastValue = value;
-                    lastUnits = units;
-                }
-                lastSignificant = totalWritten;
-                nextProgress = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(15);
+        /**
+         * Prints a message to the build log unless the build has moved on.
+         *
+         * @param message the message.
+         */
+        synchronized void log(String message) {
+            if (!detached) {
+                listener.getLogger().println(message);
             }
         }
-    }
 
-    private static class IsFileCallable implements FilePath.FileCallable<Boolean> {
-        public Boolean invoke(File f, VirtualChannel channel) throws IOException {
-            return f.isFile();
+        /**
+         * Stops printing to the build log, which the build may close at any time from now on.
+         */
+        synchronized void detach() {
+            detached = true;
+        }
+
+        @Override
+        protected void reportProgress(@NonNull UploadStatistics statistics) {
+            long eta = statistics.getEtaSeconds();
+            log(MessageFormat.format("[cloudbees-deployer] {0} of {1} at {2}/s{3}",
+                    formatBytes(statistics.getBytesWritten()), formatBytes(length),
+                    formatBytes((long) statistics.getCurrentRate()),
+                    eta < 0 ? "" : MessageFormat.format(", about {0} seconds remaining", eta)));
+        }
+
+        @Override
+        protected void reportCompleted(@NonNull UploadStatistics statistics) {
+            log(MessageFormat.format("[cloudbees-deployer] Uploaded {0} in {1,number,0.0} "
+                    + "seconds ({2,number,0.00} MB/s)", formatBytes(statistics.getBytesWritten()),
+                    statistics.getElapsedMillis() / 1000.0, statistics.getAverageRate() / ONE_K / ONE_K));
+        }
+
+        private String formatBytes(long bytes) {
+            if (Math.max(bytes, length) <= ONE_K * 8) {
+                return bytes + " B";
+            } else if (Math.max(bytes, length) < ONE_K * ONE_K * 8) {
+                return bytes / ONE_K + " KB";
+            } else {
+                return bytes / ONE_K / ONE_K + " MB";
+            }
+        }
+
+        public void handleRetry(int attempt, long delay, Exception cause) {
+            log(MessageFormat.format("[cloudbees-deployer] Upload attempt {0} failed: {1}. "
+                    + "Retrying in {2} seconds", attempt, cause.getMessage(), TimeUnit.MILLISECONDS.toSeconds(delay)));
+            reset();
+        }
+
+        public void handleStalled(int attempt, long idle, long window) {
+            log(MessageFormat.format("[cloudbees-deployer] Upload attempt {0} made no "
+                    + "progress for {1} seconds (limit {2} seconds based on the observed throughput), aborting",
+                    attempt, TimeUnit.MILLISECONDS.toSeconds(idle), TimeUnit.MILLISECONDS.toSeconds(window)));
+        }
+
+        public void handleThrottled(long throttled) {
+            log(MessageFormat.format("[cloudbees-deployer] Upload was throttled by the "
+                    + "agent bandwidth limits for {0,number,0.0} seconds", throttled / 1000.0));
         }
     }
 }
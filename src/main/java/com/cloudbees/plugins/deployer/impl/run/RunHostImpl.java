@@ -25,10 +25,8 @@
 package com.cloudbees.plugins.deployer.impl.run;
 
 import com.cloudbees.EndPoints;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.deployer.DeployNowRunAction;
 import com.cloudbees.plugins.deployer.hosts.DeployHost;
 import com.cloudbees.plugins.deployer.hosts.DeployHostDescriptor;
@@ -36,9 +34,6 @@ import com.cloudbees.plugins.deployer.hosts.Messages;
 import com.cloudbees.plugins.deployer.sources.DeploySourceOrigin;
 import com.cloudbees.plugins.deployer.sources.MavenArtifactDeploySource;
 import com.cloudbees.plugins.deployer.sources.StaticSelectionDeploySource;
-import com.cloudbees.plugins.registration.run.CloudBeesClient;
-import com.cloudbees.plugins.registration.run.CloudBeesClientFactory;
-import com.ning.http.client.AsyncHttpClientConfig;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
@@ -54,7 +49,8 @@ import hudson.security.ACL;
 import hudson.util.ComboBoxModel;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
-import jenkins.plugins.asynchttpclient.AHCUtils;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.acegisecurity.Authentication;
 import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.Project;
@@ -62,8 +58,10 @@ import org.apache.tools.ant.types.FileSet;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
@@ -73,8 +71,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author stephenc
@@ -82,6 +84,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
 
+    private static final Logger LOGGER = Logger.getLogger(RunHostImpl.class.getName());
+
     /**
      * The maximum number of targets to infer.
      */
@@ -93,11 +97,36 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
     @CheckForNull
     private final String account;
 
-    @DataBoundConstructor
+    /**
+     * The maximum number of targets to deploy at the same time, {@code 0} or {@code 1} deploys them one at a time.
+     */
+    private final int parallelism;
+
+    /**
+     * When deploying in parallel, whether the remaining targets should carry on after a target fails rather than
+     * being cancelled.
+     */
+    private final boolean bestEffort;
+
+    /**
+     * @deprecated Retained for backwards API compatibility
+     */
+    @Deprecated
     public RunHostImpl(String user, String account, List<RunTargetImpl> targets) {
+        this(user, account, targets, 1, false);
+    }
+
+    /**
+     * @since 6.1
+     */
+    @DataBoundConstructor
+    public RunHostImpl(String user, String account, List<RunTargetImpl> targets, int parallelism,
+                       boolean bestEffort) {
         super(targets);
         this.user = user;
         this.account = account;
+        this.parallelism = Math.max(parallelism, 1);
+        this.bestEffort = bestEffort;
     }
 
     @CheckForNull
@@ -110,6 +139,14 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
         return account;
     }
 
+    public int getParallelism() {
+        return Math.max(parallelism, 1);
+    }
+
+    public boolean isBestEffort() {
+        return bestEffort;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -119,18 +156,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
         if (cloudBeesUser == null) {
             return false;
         }
-        List<CloudBeesAccount> accounts = cloudBeesUser.getAccounts();
-        if (accounts == null) {
-            return false;
-        }
-        CloudBeesAccount cloudBeesAccount = null;
-        for (CloudBeesAccount a : accounts) {
-            if (a.getName().equals(account)) {
-                cloudBeesAccount = a;
-                break;
-            }
-        }
-        return cloudBeesAccount != null;
+        return cloudBeesUser.getAccount(account) != null;
     }
 
     @Override
@@ -139,6 +165,8 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
         sb.append("RunHostImpl");
         sb.append("{user='").append(user).append('\'');
         sb.append(", account='").append(account).append('\'');
+        sb.append(", parallelism=").append(parallelism);
+        sb.append(", bestEffort=").append(bestEffort);
         sb.append(", super='").append(super.toString()).append('\'');
         sb.append('}');
         return sb.toString();
@@ -205,15 +233,14 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
 
             Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
             if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                for (CloudBeesUser u : CredentialsProvider.lookupCredentials(CloudBeesUser.class, item,
-                        Hudson.getAuthentication(), Collections.<DomainRequirement>emptyList())) {
+                for (CloudBeesUser u : CredentialsIndex.list(item, Hudson.getAuthentication())) {
                     m.add(u.getDisplayName(), u.getName());
                     names.add(u.getName());
                 }
             }
 
             if (item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                for (CloudBeesUser u : CredentialsProvider.lookupCredentials(CloudBeesUser.class, item, ACL.SYSTEM)) {
+                for (CloudBeesUser u : CredentialsIndex.list(item, ACL.SYSTEM)) {
                     if (!names.contains(u.getName())) {
                         m.add(u.getDisplayName(), u.getName());
                         names.add(u.getName());
@@ -232,17 +259,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                 return FormValidation.warning("The user to deploy as must be specified");
             }
 
-            Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-            CloudBeesUser cloudBeesUser = null;
-
-            if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                cloudBeesUser = getCloudBeesUser(value, Hudson.getAuthentication());
-            }
-
-            if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                cloudBeesUser = getCloudBeesUser(value, ACL.SYSTEM);
-            }
+            CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, value);
 
             if (cloudBeesUser == null) {
                 return FormValidation
@@ -261,17 +278,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                 return m;
             }
 
-            Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-            CloudBeesUser u = null;
-
-            if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                u = getCloudBeesUser(user, Hudson.getAuthentication());
-            }
-
-            if (u == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                u = getCloudBeesUser(user, ACL.SYSTEM);
-            }
+            CloudBeesUser u = FormCredentials.resolve(usersAuth, user);
 
             if (u == null) {
                 return m;
@@ -300,17 +307,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                 return FormValidation.warning("The account to deploy into must be specified");
             }
 
-            Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-            CloudBeesUser cloudBeesUser = null;
-
-            if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-            }
-
-            if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-            }
+            CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
             if (cloudBeesUser == null) {
                 return FormValidation.ok();  // somebody else will flag this issue
@@ -324,15 +321,67 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
             return FormValidation.ok();
         }
 
-        private static CloudBeesUser getCloudBeesUser(String user, Authentication authentication) {
-            for (CloudBeesUser u : CredentialsProvider.lookupCredentials(CloudBeesUser.class,
-                    Stapler.getCurrentRequest().findAncestorObject(Item.class), authentication)) {
-                if (u.getName().equals(user)) {
-                    return u;
+        /**
+         * Returns, in one response, what the configuration page needs to fill in every target of a host: the region
+         * of each application of the account and the API end-points available to it. The page would otherwise ask
+         * for both once per target. When the data cannot be fetched, the response says why in its {@code error}
+         * field.
+         *
+         * @param usersAuth non-empty to try the credentials of the current user.
+         * @param user      the user.
+         * @param account   the account.
+         * @param rsp       the response.
+         * @throws IOException if the response could not be written.
+         * @since 6.1
+         */
+        @SuppressWarnings("unused") // used by targetData.js
+        public void doTargetData(@QueryParameter String usersAuth, @QueryParameter String user,
+                                 @QueryParameter String account, StaplerResponse rsp) throws IOException {
+            Map<String, String> applications = Collections.emptyMap();
+            Map<String, String> endpoints = new LinkedHashMap<String, String>();
+            endpoints.put(EndPoints.runAPI(), "US");
+            String error = null;
+            try {
+                if (!StringUtils.isBlank(user) && !StringUtils.isBlank(account)) {
+                    CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
+                    CloudBeesAccount cloudBeesAccount =
+                            cloudBeesUser == null ? null : cloudBeesUser.getAccount(account);
+                    if (cloudBeesAccount != null) {
+                        RunTargetImpl.DescriptorImpl descriptor = getTargetDescriptor();
+                        applications = descriptor.getApplicationStatuses(cloudBeesUser, cloudBeesAccount);
+                        endpoints.putAll(descriptor.getAccountEndpoints(cloudBeesUser, cloudBeesAccount));
+                    }
                 }
+            } catch (Exception e) {
+                LOGGER.log(Level.INFO, "Could not list the applications and end-points of " + account, e);
+                Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                error = "Could not list the applications of " + account + ": "
+                        + StringUtils.defaultIfEmpty(cause.getMessage(), cause.getClass().getSimpleName());
+            }
+            JSONArray endpointList = new JSONArray();
+            for (Map.Entry<String, String> entry : endpoints.entrySet()) {
+                JSONObject endpoint = new JSONObject();
+                endpoint.put("value", entry.getKey());
+                endpoint.put("region", entry.getValue());
+                endpointList.add(endpoint);
+            }
+            JSONObject result = new JSONObject();
+            result.put("applications", JSONObject.fromObject(new TreeMap<String, String>(applications)));
+            result.put("endpoints", endpointList);
+            if (error != null) {
+                result.put("error", error);
             }
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().print(result.toString());
+        }
+
+        private static RunTargetImpl.DescriptorImpl getTargetDescriptor() {
+            return Hudson.getInstance().getDescriptorByType(RunTargetImpl.DescriptorImpl.class);
+        }
 
-            return null;
+        private static CloudBeesUser getCloudBeesUser(String user, Authentication authentication) {
+            return CredentialsIndex.find(Stapler.getCurrentRequest().findAncestorObject(Item.class), authentication,
+                    user);
         }
 
         @SuppressWarnings("unused") // used by stapler
@@ -351,17 +400,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                     return FormValidation.error("Application Id cannot be empty");
                 }
 
-                Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-                CloudBeesUser cloudBeesUser = null;
-
-                if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-                }
-
-                if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-                }
+                CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
                 if (cloudBeesUser == null) {
                     return FormValidation.ok();  // somebody else will flag this issue
@@ -371,24 +410,10 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                     return FormValidation.ok(); // somebody else will flag this issue
                 }
 
-                CloudBeesClient client = new CloudBeesClientFactory()
-                        .withClientConfig(
-                                new AsyncHttpClientConfig.Builder().setRequestTimeoutInMs(25000)
-                                        .build())
-                        .withProxyServer(AHCUtils.getProxyServer())
-                        .withAuthentication(cloudBeesUser.getAPIKey(), cloudBeesUser.getAPISecret().getPlainText())
-                        .build();
-                try {
-                    String matchName = account + "/" + value;
-                    for (String name : client
-                            .getApplicationsStatuses(cloudBeesAccount.getName())
-                            .get(30, TimeUnit.SECONDS).keySet()) {
-                        if (name.equals(matchName)) {
-                            return FormValidation.ok();
-                        }
-                    }
-                } finally {
-                    client.close();
+                // shared with the target descriptor so that a page full of targets makes a single request
+                if (getTargetDescriptor().getApplicationStatuses(cloudBeesUser, cloudBeesAccount)
+                        .containsKey(value)) {
+                    return FormValidation.ok();
                 }
                 return FormValidation
                         .warning("This application ID was not found, so using it will create a new application");
@@ -407,17 +432,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                     return new ComboBoxModel();
                 }
 
-                Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-                CloudBeesUser cloudBeesUser = null;
-
-                if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-                }
-
-                if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-                }
+                CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
                 if (cloudBeesUser == null) {
                     return new ComboBoxModel();
@@ -429,27 +444,8 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                     return new ComboBoxModel();
                 }
 
-                Set<String> names = new TreeSet<String>();
-                CloudBeesClient client = new CloudBeesClientFactory()
-                        .withClientConfig(
-                                new AsyncHttpClientConfig.Builder().setRequestTimeoutInMs(25000)
-                                        .build())
-                        .withProxyServer(AHCUtils.getProxyServer())
-                        .withAuthentication(cloudBeesUser.getAPIKey(), cloudBeesUser.getAPISecret().getPlainText())
-                        .build();
-                try {
-                    String prefix = account + "/";
-                    for (String name : client
-                            .getApplicationsStatuses(cloudBeesAccount.getName())
-                            .get(30, TimeUnit.SECONDS).keySet()) {
-                        if (name.startsWith(prefix)) {
-                            names.add(name.substring(prefix.length()));
-                        }
-                    }
-                } finally {
-                    client.close();
-                }
-                return new ComboBoxModel(names);
+                return new ComboBoxModel(new TreeSet<String>(
+                        getTargetDescriptor().getApplicationStatuses(cloudBeesUser, cloudBeesAccount).keySet()));
             } catch (Exception e) {
                 return new ComboBoxModel();
             }
@@ -463,7 +459,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
         @CheckForNull
         public RunHostImpl createDefault(@CheckForNull Run<?, ?> run,
                                          @CheckForNull Set<DeploySourceOrigin> origins) {
-            return isSupported(origins, run) ? new RunHostImpl(null, null, createTargets(run, origins)) : null;
+            return isSupported(origins, run) ? new RunHostImpl(null, null, createTargets(run, origins), 1, false) : null;
         }
 
         /**
@@ -474,11 +470,14 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
         public RunHostImpl updateDefault(@CheckForNull Run<?, ?> run, @CheckForNull Set<DeploySourceOrigin> origins,
                                          RunHostImpl template) {
             return isSupported(origins, run)
-                    ? new RunHostImpl(template.getUser(), template.getAccount(), createTargets(run, origins))
+                    ? new RunHostImpl(template.getUser(), template.getAccount(), createTargets(run, origins),
+                    template.getParallelism(), template.isBestEffort())
                     : null;
         }
 
         private List<RunTargetImpl> createTargets(Run<?, ?> run, Set<DeploySourceOrigin> origins) {
+            CacheMetrics metrics = DeploymentMetrics.get().cache(DeploymentMetrics.NEW_TARGET_CACHE);
+            long loadStarted = System.nanoTime();
             TargetKey key;
             if (run != null) {
                 key = new TargetKey(run, origins);
@@ -486,6 +485,7 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                 if (reference != null) {
                     final List<RunTargetImpl> targets = reference.get();
                     if (targets != null) {
+                        metrics.hit();
                         return targets;
                     }
                 }
@@ -504,85 +504,85 @@ public class RunHostImpl extends DeployHost<RunHostImpl, RunTargetImpl> {
                             if (result.size() > MAX_AUTO_TARGETS) {
                                 break;
                             }
-                            List<MavenArtifactRecord> records = build.getActions(MavenArtifactRecord.class);
-                            if (records != null) {
-                                for (MavenArtifactRecord record : records) {
-                                    if (result.size() > MAX_AUTO_TARGETS) {
-                                        break;
-                                    }
-                                    MavenArtifact mainArtifact = record.mainArtifact;
-                                    if ("war".equals(mainArtifact.type)) {
-                                        result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
-                                                new MavenArtifactDeploySource(mainArtifact.groupId,
-                                                                                                mainArtifact.artifactId,
-                                                                                                mainArtifact.classifier, mainArtifact.type), false, null, null, null));
-                                    }
-                                    for (MavenArtifact artifact : record.attachedArtifacts) {
-                                        if (result.size() > MAX_AUTO_TARGETS) {
-                                            break;
-                                        }
-                                        if ("war".equals(artifact.type)) {
-                                            result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
-                                                    new MavenArtifactDeploySource(mainArtifact.groupId,
-                                                                                                        mainArtifact.artifactId,
-                                                                                                        mainArtifact.classifier, mainArtifact.type), false, null, null, null));
-                                        }
-                                    }
-                                }
-                            }
+                            addRecordTargets(result, build.getActions(MavenArtifactRecord.class));
                         }
 
                     }
                 } else if (run instanceof MavenBuild) {
-                    final MavenBuild build = (MavenBuild) run;
-                    List<MavenArtifactRecord> records = build.getActions(MavenArtifactRecord.class);
-                    if (records != null) {
-                        for (MavenArtifactRecord record : records) {
-                            if (result.size() > MAX_AUTO_TARGETS) {
-                                break;
-                            }
-                            MavenArtifact mainArtifact = record.mainArtifact;
-                            if ("war".equals(mainArtifact.type)) {
-                                result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
-                                        new MavenArtifactDeploySource(mainArtifact.groupId,
-                                                                                mainArtifact.artifactId,
-                                                                                mainArtifact.classifier, mainArtifact.type), false, null, null, null));
-                            }
-                            for (MavenArtifact artifact : record.attachedArtifacts) {
-                                if (result.size() > MAX_AUTO_TARGETS) {
-                                    break;
-                                }
-                                if ("war".equals(artifact.type)) {
-                                    result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
-                                            new MavenArtifactDeploySource(mainArtifact.groupId,
-                                                                                        mainArtifact.artifactId,
-                                                                                        mainArtifact.classifier, mainArtifact.type), false, null, null, null));
-                                }
-                            }
-                        }
-                    }
+                    addRecordTargets(result, ((MavenBuild) run).getActions(MavenArtifactRecord.class));
                 } else {
                     if (run != null && run.getArtifactsDir().isDirectory() && run.getHasArtifacts()) {
-                        FileSet fileSet = new FileSet();
-                        fileSet.setProject(new Project());
-                        fileSet.setDir(run.getArtifactsDir());
-                        fileSet.setIncludes("**/*.war");
-                        for (String path : fileSet.getDirectoryScanner().getIncludedFiles()) {
-                            if (result.size() > MAX_AUTO_TARGETS) {
-                                break;
-                            }
-                            result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
-                                    new StaticSelectionDeploySource(path), false, null, null, null));
-                        }
+                        addArchivedTargets(result, run.getArtifactsDir());
                     }
                 }
             }
             if (key != null) {
                 newTargetCache.put(key, new SoftReference<List<RunTargetImpl>>(result));
             }
+            metrics.miss();
+            metrics.loaded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStarted));
             return result;
         }
 
+        private static void addRecordTargets(List<RunTargetImpl> result, List<MavenArtifactRecord> records) {
+            if (records != null) {
+                for (MavenArtifactRecord record : records) {
+                    if (result.size() > MAX_AUTO_TARGETS) {
+                        break;
+                    }
+                    addArtifactTargets(result, record.mainArtifact, record.attachedArtifacts);
+                }
+            }
+        }
+
+        /**
+         * Adds a target for each war among the artifacts of a Maven module, stopping once there are more than
+         * {@code MAX_AUTO_TARGETS}.
+         *
+         * @param result       the targets to add to.
+         * @param mainArtifact the main artifact of the module.
+         * @param attached     the attached artifacts of the module.
+         */
+        static void addArtifactTargets(List<RunTargetImpl> result, MavenArtifact mainArtifact,
+                                       List<MavenArtifact> attached) {
+            if ("war".equals(mainArtifact.type)) {
+                result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
+                        new MavenArtifactDeploySource(mainArtifact.groupId, mainArtifact.artifactId,
+                                mainArtifact.classifier, mainArtifact.type), false, null, null, null));
+            }
+            for (MavenArtifact artifact : attached) {
+                if (result.size() > MAX_AUTO_TARGETS) {
+                    break;
+                }
+                if ("war".equals(artifact.type)) {
+                    result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
+                            new MavenArtifactDeploySource(mainArtifact.groupId, mainArtifact.artifactId,
+                                    mainArtifact.classifier, mainArtifact.type), false, null, null, null));
+                }
+            }
+        }
+
+        /**
+         * Adds a target for each war archived by a build, stopping once there are more than
+         * {@code MAX_AUTO_TARGETS}.
+         *
+         * @param result       the targets to add to.
+         * @param artifactsDir the directory holding the archived artifacts.
+         */
+        static void addArchivedTargets(List<RunTargetImpl> result, File artifactsDir) {
+            FileSet fileSet = new FileSet();
+            fileSet.setProject(new Project());
+            fileSet.setDir(artifactsDir);
+            fileSet.setIncludes("**/*.war");
+            for (String path : fileSet.getDirectoryScanner().getIncludedFiles()) {
+                if (result.size() > MAX_AUTO_TARGETS) {
+                    break;
+                }
+                result.add(new RunTargetImpl(EndPoints.runAPI(), null, null, null, null,
+                        new StaticSelectionDeploySource(path), false, null, null, null));
+            }
+        }
+
     }
 
     /**
@@ -26,14 +26,11 @@ package com.cloudbees.plugins.deployer.impl.run;
 
 import com.cloudbees.EndPoints;
 import com.cloudbees.api.BeesClient;
-import com.cloudbees.api.BeesClientConfiguration;
 import com.cloudbees.api.ServiceResourceInfo;
 import com.cloudbees.api.ServiceResourceListResponse;
 import com.cloudbees.api.ServiceSubscriptionInfo;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
-import com.cloudbees.plugins.deployer.DeployNowRunAction;
 import com.cloudbees.plugins.deployer.NamedThreadFactory;
 import com.cloudbees.plugins.deployer.sources.DeploySource;
 import com.cloudbees.plugins.deployer.targets.DeployTarget;
@@ -41,35 +38,31 @@ import com.cloudbees.plugins.deployer.targets.DeployTargetDescriptor;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
-import hudson.ProxyConfiguration;
 import hudson.RelativePath;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
-import hudson.model.Hudson;
-import hudson.model.Item;
 import hudson.model.TaskListener;
-import hudson.security.ACL;
 import hudson.util.ComboBoxModel;
 import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.TimeUnit2;
-import org.acegisecurity.Authentication;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
-import org.kohsuke.stapler.Stapler;
 
 import javax.servlet.ServletException;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -130,6 +123,23 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
     @CheckForNull
     private final Setting[] clickStackRuntimeConfig;
 
+    /**
+     * Whether to wait until the deployed application answers.
+     */
+    private final boolean waitUntilReady;
+
+    /**
+     * Whether to skip the upload of an archive that is byte-identical to the last one this Jenkins deployed to the
+     * application with the same settings.
+     */
+    private final boolean skipUnchanged;
+
+    /**
+     * The paths to request once the deployed application answers, one per line.
+     */
+    @CheckForNull
+    private final String warmUpRequests;
+
     /**
      * @deprecated Retained for backwards API compatibility
      */
@@ -142,12 +152,38 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
 
     /**
      * @since 4.14
+     * @deprecated Retained for backwards API compatibility
      */
-    @DataBoundConstructor
+    @Deprecated
     public RunTargetImpl(String apiEndPoint, String applicationId, String applicationEnvironment,
                          String deploymentDescription, Setting[] applicationConfig, DeploySource artifact,
                          boolean deltaDeployment, String clickStackName, Setting[] clickStackConfig,
                          Setting[] clickStackRuntimeConfig) {
+        this(apiEndPoint, applicationId, applicationEnvironment, deploymentDescription, applicationConfig,
+                artifact, deltaDeployment, clickStackName, clickStackConfig, clickStackRuntimeConfig, false, null);
+    }
+
+    /**
+     * @since 6.1
+     */
+    public RunTargetImpl(String apiEndPoint, String applicationId, String applicationEnvironment,
+                         String deploymentDescription, Setting[] applicationConfig, DeploySource artifact,
+                         boolean deltaDeployment, String clickStackName, Setting[] clickStackConfig,
+                         Setting[] clickStackRuntimeConfig, boolean waitUntilReady, String warmUpRequests) {
+        this(apiEndPoint, applicationId, applicationEnvironment, deploymentDescription, applicationConfig,
+                artifact, deltaDeployment, clickStackName, clickStackConfig, clickStackRuntimeConfig, waitUntilReady,
+                warmUpRequests, false);
+    }
+
+    /**
+     * @since 6.1
+     */
+    @DataBoundConstructor
+    public RunTargetImpl(String apiEndPoint, String applicationId, String applicationEnvironment,
+                         String deploymentDescription, Setting[] applicationConfig, DeploySource artifact,
+                         boolean deltaDeployment, String clickStackName, Setting[] clickStackConfig,
+                         Setting[] clickStackRuntimeConfig, boolean waitUntilReady, String warmUpRequests,
+                         boolean skipUnchanged) {
         super(artifact);
         this.apiEndPoint = StringUtils.isBlank(apiEndPoint) ? EndPoints.runAPI() : apiEndPoint;
         this.applicationConfig = applicationConfig == null ? new Setting[0] : applicationConfig.clone();
@@ -159,6 +195,9 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
         this.clickStackConfig = clickStackConfig == null ? new Setting[0] : clickStackConfig.clone();
         this.clickStackRuntimeConfig =
                 clickStackRuntimeConfig == null ? new Setting[0] : clickStackRuntimeConfig.clone();
+        this.waitUntilReady = waitUntilReady;
+        this.warmUpRequests = Util.fixEmptyAndTrim(warmUpRequests);
+        this.skipUnchanged = skipUnchanged;
     }
 
     public String getApiEndPoint() {
@@ -233,6 +272,53 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
         return deltaDeployment;
     }
 
+    public boolean isWaitUntilReady() {
+        return waitUntilReady;
+    }
+
+    /**
+     * Returns {@code true} if an archive identical to the last one deployed from this Jenkins is not uploaded again.
+     *
+     * @return {@code true} if an archive identical to the last one deployed from this Jenkins is not uploaded again.
+     * @since 6.1
+     */
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    @CheckForNull
+    public String getWarmUpRequests() {
+        return warmUpRequests;
+    }
+
+    /**
+     * Returns the paths to request once the deployed application answers.
+     *
+     * @return the paths to request once the deployed application answers, possibly empty.
+     */
+    @NonNull
+    public List<String> getWarmUpPaths() {
+        List<String> result = new ArrayList<String>();
+        if (warmUpRequests != null) {
+            for (String line : warmUpRequests.split("\\r?\\n")) {
+                String path = line.trim();
+                if (path.length() > 0 && !path.startsWith("#")) {
+                    result.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if the deployed application should be probed once it has been deployed.
+     *
+     * @return {@code true} if the deployed application should be probed once it has been deployed.
+     */
+    public boolean isProbeAfterDeploy() {
+        return waitUntilReady || !getWarmUpPaths().isEmpty();
+    }
+
     public String getApplicationId() {
         return applicationId;
     }
@@ -341,7 +427,11 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
 
     @Override
     protected boolean isArtifactFileValid(File file) {
-        return file.isFile();
+        try {
+            return file.isFile() && ZipIntegrityCheck.check(file) == null;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     @Override
@@ -362,6 +452,8 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
         sb.append(", clickStackName='").append(clickStackName).append('\'');
         sb.append(", clickStackConfig=").append(Arrays.toString(clickStackConfig));
         sb.append(", clickStackRuntimeConfig=").append(Arrays.toString(clickStackRuntimeConfig));
+        sb.append(", waitUntilReady=").append(waitUntilReady);
+        sb.append(", warmUpRequests='").append(warmUpRequests).append('\'');
         sb.append('}');
         return sb.toString();
     }
@@ -369,6 +461,11 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
     @Extension
     public static class DescriptorImpl extends DeployTargetDescriptor<RunTargetImpl> {
 
+        /**
+         * @deprecated the account queries now run on the {@link AccountQueryExecutor}, this executor is no longer
+         * used.
+         */
+        @Deprecated
         public final ExecutorService executorService =
                 new ThreadPoolExecutor(0, 2, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
                         new NamedThreadFactory("RunTargetImpl:UI-Queries",
@@ -404,87 +501,113 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
             return Messages.CloudBeesRunTarget_DisplayName();
         }
 
+        /**
+         * Returns the API end-point selected for a new target.
+         *
+         * @return the API end-point selected for a new target.
+         * @since 6.1
+         */
+        public String getDefaultApiEndPoint() {
+            return EndPoints.runAPI();
+        }
+
+        /**
+         * Returns the region of each application of an account, keyed by application name. Lists are cached for a
+         * minute and concurrent requests for the same account share one remote call. A failed call is not cached.
+         *
+         * @param cloudBeesUser    the user.
+         * @param cloudBeesAccount the account.
+         * @return the region of each application.
+         */
         @NonNull
-        private Map<String, String> getApplicationStatuses(CloudBeesUser cloudBeesUser,
-                                                           CloudBeesAccount cloudBeesAccount)
+        Map<String, String> getApplicationStatuses(CloudBeesUser cloudBeesUser,
+                                                   CloudBeesAccount cloudBeesAccount)
                 throws IOException, InterruptedException, ExecutionException, TimeoutException {
             final String cacheKey = cloudBeesUser.getName() + ":" + cloudBeesAccount.getName();
             Map<String, String> applicationStatuses;
             CachedMap<String, String> cacheValue;
+            boolean loading = false;
+            long loadStarted = System.nanoTime();
             synchronized (applicationStatusCache) {
                 cacheValue = applicationStatusCache.get(cacheKey);
-                if (cacheValue != null && cacheValue.isExpired()) {
-                    applicationStatusCache.remove(cacheKey);
-                    cacheValue = null;
+                if (cacheValue == null || cacheValue.isExpired()) {
+                    // start the load while holding the lock so identical requests in flight share it
+                    final BeesClient client = BeesClientRegistry.get(EndPoints.runAPI(), cloudBeesUser.getAPIKey(),
+                            cloudBeesUser.getAPISecret().getPlainText());
+                    cacheValue = new CachedMap<String, String>(AccountQueryExecutor.get().submit(
+                            cloudBeesAccount.getName(), new AccountRegionsCallable(client, cloudBeesAccount)));
+                    applicationStatusCache.put(cacheKey, cacheValue);
+                    loading = true;
                 }
             }
-            if (cacheValue != null) {
+            CacheMetrics metrics = DeploymentMetrics.get().cache(DeploymentMetrics.APPLICATION_STATUS_CACHE);
+            try {
                 applicationStatuses = cacheValue.getStatuses().get(30, TimeUnit.SECONDS);
-                if (applicationStatuses != null) {
-                    return applicationStatuses;
+            } catch (ExecutionException e) {
+                synchronized (applicationStatusCache) {
+                    if (applicationStatusCache.get(cacheKey) == cacheValue) {
+                        applicationStatusCache.remove(cacheKey);
+                    }
                 }
-                return Collections.emptyMap();
-            }
-            BeesClientConfiguration config =
-                    new BeesClientConfiguration(EndPoints.runAPI(), cloudBeesUser.getAPIKey(),
-                            cloudBeesUser.getAPISecret().getPlainText(), "xml", "1.0");
-            if (Hudson.getInstance() != null && Hudson.getInstance().proxy != null) {
-                final ProxyConfiguration proxy = Hudson.getInstance().proxy;
-                config.setProxyHost(proxy.name);
-                config.setProxyPort(proxy.port);
-                config.setProxyUser(proxy.getUserName());
-                config.setProxyPassword(proxy.getPassword());
+                throw e;
             }
-            final BeesClient client = new BeesClient(config);
-            cacheValue = new CachedMap<String, String>(executorService.submit(
-                    new AccountRegionsCallable(client, cloudBeesAccount)));
-            synchronized (applicationStatusCache) {
-                applicationStatusCache.put(cacheKey, cacheValue);
+            if (loading) {
+                metrics.miss();
+                metrics.loaded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStarted));
+            } else {
+                metrics.hit();
             }
-            applicationStatuses = cacheValue.getStatuses().get(30, TimeUnit.SECONDS);
             if (applicationStatuses != null) {
                 return applicationStatuses;
             }
             return Collections.emptyMap();
         }
 
-        private Map<String, String> getAccountEndpoints(CloudBeesUser cloudBeesUser,
-                                                        CloudBeesAccount cloudBeesAccount)
+        /**
+         * Returns the region of each API end-point available to an account, keyed by end-point. The list is cached
+         * for a minute and concurrent requests for the same account share one remote call. A failed call is not
+         * cached.
+         *
+         * @param cloudBeesUser    the user.
+         * @param cloudBeesAccount the account.
+         * @return the region of each API end-point.
+         */
+        Map<String, String> getAccountEndpoints(CloudBeesUser cloudBeesUser, CloudBeesAccount cloudBeesAccount)
                 throws IOException, InterruptedException, ExecutionException, TimeoutException {
             final String cacheKey = cloudBeesUser.getName() + ":" + cloudBeesAccount.getName();
             Map<String, String> accountEndpoints;
             CachedMap<String, String> cacheValue;
+            boolean loading = false;
+            long loadStarted = System.nanoTime();
             synchronized (accountEndpointsCache) {
                 cacheValue = accountEndpointsCache.get(cacheKey);
-                if (cacheValue != null && cacheValue.isExpired()) {
-                    accountEndpointsCache.remove(cacheKey);
-                    cacheValue = null;
+                if (cacheValue == null || cacheValue.isExpired()) {
+                    // start the load while holding the lock so identical requests in flight share it
+                    final BeesClient client = BeesClientRegistry.get(EndPoints.runAPI(), cloudBeesUser.getAPIKey(),
+                            cloudBeesUser.getAPISecret().getPlainText());
+                    cacheValue = new CachedMap<String, String>(AccountQueryExecutor.get().submit(
+                            cloudBeesAccount.getName(), new AccountEndpointsCallable(client, cloudBeesAccount)));
+                    accountEndpointsCache.put(cacheKey, cacheValue);
+                    loading = true;
                 }
             }
-            if (cacheValue != null) {
+            CacheMetrics metrics = DeploymentMetrics.get().cache(DeploymentMetrics.ACCOUNT_ENDPOINTS_CACHE);
+            try {
                 accountEndpoints = cacheValue.getStatuses().get(30, TimeUnit.SECONDS);
-                if (accountEndpoints != null) {
-                    return accountEndpoints;
+            } catch (ExecutionException e) {
+                synchronized (accountEndpointsCache) {
+                    if (accountEndpointsCache.get(cacheKey) == cacheValue) {
+                        accountEndpointsCache.remove(cacheKey);
+                    }
                 }
-                return Collections.emptyMap();
+                throw e;
             }
-            BeesClientConfiguration config =
-                    new BeesClientConfiguration(EndPoints.runAPI(), cloudBeesUser.getAPIKey(),
-                            cloudBeesUser.getAPISecret().getPlainText(), "xml", "1.0");
-            if (Hudson.getInstance() != null && Hudson.getInstance().proxy != null) {
-                final ProxyConfiguration proxy = Hudson.getInstance().proxy;
-                config.setProxyHost(proxy.name);
-                config.setProxyPort(proxy.port);
-                config.setProxyUser(proxy.getUserName());
-                config.setProxyPassword(proxy.getPassword());
+            if (loading) {
+                metrics.miss();
+                metrics.loaded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStarted));
+            } else {
+                metrics.hit();
             }
-            final BeesClient client = new BeesClient(config);
-            cacheValue = new CachedMap<String, String>(executorService.submit(
-                    new AccountEndpointsCallable(client, cloudBeesAccount)));
-            synchronized (accountEndpointsCache) {
-                accountEndpointsCache.put(cacheKey, cacheValue);
-            }
-            accountEndpoints = cacheValue.getStatuses().get(30, TimeUnit.SECONDS);
             if (accountEndpoints != null) {
                 return accountEndpoints;
             }
@@ -507,17 +630,7 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
                     return FormValidation.error("Application Id cannot be empty");
                 }
 
-                Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-                CloudBeesUser cloudBeesUser = null;
-
-                if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-                }
-
-                if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-                }
+                CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
                 if (cloudBeesUser == null) {
                     return FormValidation.ok();  // somebody else will flag this issue
@@ -548,17 +661,7 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
                     return new ComboBoxModel();
                 }
 
-                Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-                CloudBeesUser cloudBeesUser = null;
-
-                if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-                }
-
-                if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                    cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-                }
+                CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
                 if (cloudBeesUser == null) {
                     return new ComboBoxModel();
@@ -591,17 +694,7 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
             try {
                 if (!StringUtils.isBlank(user) && !StringUtils.isBlank(account)) {
 
-                    Item item = Stapler.getCurrentRequest().findAncestorObject(Item.class);
-
-                    CloudBeesUser cloudBeesUser = null;
-
-                    if (!StringUtils.isEmpty(usersAuth) && item.hasPermission(DeployNowRunAction.OWN_AUTH)) {
-                        cloudBeesUser = getCloudBeesUser(user, Hudson.getAuthentication());
-                    }
-
-                    if (cloudBeesUser == null && item.hasPermission(DeployNowRunAction.JOB_AUTH)) {
-                        cloudBeesUser = getCloudBeesUser(user, ACL.SYSTEM);
-                    }
+                    CloudBeesUser cloudBeesUser = FormCredentials.resolve(usersAuth, user);
 
                     if (cloudBeesUser != null) {
 
@@ -609,17 +702,6 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
 
                         if (cloudBeesAccount != null) {
 
-                            BeesClientConfiguration config =
-                                    new BeesClientConfiguration(EndPoints.runAPI(), cloudBeesUser.getAPIKey(),
-                                            cloudBeesUser.getAPISecret().getPlainText(), "xml", "1.0");
-                            if (Hudson.getInstance() != null && Hudson.getInstance().proxy != null) {
-                                final ProxyConfiguration proxy = Hudson.getInstance().proxy;
-                                config.setProxyHost(proxy.name);
-                                config.setProxyPort(proxy.port);
-                                config.setProxyUser(proxy.getUserName());
-                                config.setProxyPassword(proxy.getPassword());
-                            }
-                            BeesClient client = new BeesClient(config);
                             if (!StringUtils.isBlank(applicationId)) {
                                 try {
                                     appIdRegion =
@@ -644,17 +726,6 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
 
         }
 
-        private static CloudBeesUser getCloudBeesUser(String user, Authentication authentication) {
-            for (CloudBeesUser u : CredentialsProvider.lookupCredentials(CloudBeesUser.class,
-                    Stapler.getCurrentRequest().findAncestorObject(Item.class), authentication)) {
-                if (u.getName().equals(user)) {
-                    return u;
-                }
-            }
-
-            return null;
-        }
-
         public FormValidation doCheckApplicationParameterName(@QueryParameter String value) {
             if (StringUtils.isBlank(value)) {
                 return FormValidation.error("Must not be empty");
@@ -662,7 +733,7 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
             return FormValidation.ok();
         }
 
-        private static class AccountRegionsCallable implements Callable<Map<String, String>> {
+        static class AccountRegionsCallable implements Callable<Map<String, String>> {
 
             private final String account;
             private final BeesClient client;
@@ -675,32 +746,25 @@ public class RunTargetImpl extends DeployTarget<RunTargetImpl> {
             }
 
             public Map<String, String> call() throws Exception {
-                try {
-                    ServiceResourceListResponse response = client.serviceResourceList("cb-app", account, "application");
-
-
-                    Map<String, String> accountRegions = new TreeMap<String, String>();
-                    String prefix = account + "/";
-                    for (ServiceResourceInfo resourceInfo : response.getResources()) {
-                        String id = resourceInfo.getId();
-                        if (id.startsWith(prefix)) {
-                            String region =
-                                    resourceInfo.getConfig() != null ? resourceInfo.getConfig().get("region") : null;
-                            accountRegions
-                                    .put(id.substring(prefix.length()), region == null ? "US" : region.toUpperCase());
-                        }
+                // failures are left to the callers, so that an account that could not be listed is not mistaken
+                // for one without applications
+                ServiceResourceListResponse response = client.serviceResourceList("cb-app", account, "application");
+                Map<String, String> accountRegions = new TreeMap<String, String>();
+                String prefix = account + "/";
+                for (ServiceResourceInfo resourceInfo : response.getResources()) {
+                    String id = resourceInfo.getId();
+                    if (id.startsWith(prefix)) {
+                        String region =
+                                resourceInfo.getConfig() != null ? resourceInfo.getConfig().get("region") : null;
+                        accountRegions
+                                .put(id.substring(prefix.length()), region == null ? "US" : region.toUpperCase());
                     }
-                    return accountRegions;
-                } catch (Exception e) {
-                    LOGGER.log(Level.INFO, "Could not get list of applications: ", e);
-
                 }
-
-                return Collections.emptyMap();
+                return accountRegions;
             }
         }
 
-        private static class AccountEndpointsCallable implements Callable<Map<String, String>> {
+        static class AccountEndpointsCallable implements Callable<Map<String, String>> {
 
             private final BeesClient client;
             private final CloudBeesAccount cloudBeesAccount;
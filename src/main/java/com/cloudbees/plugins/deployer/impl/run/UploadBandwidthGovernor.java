@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket bandwidth limit shared by every upload from this JVM. There is one bucket for the whole agent and
+ * one per API end-point, limits are in bytes per second and {@code 0} means unlimited:
+ * <ul>
+ * <li>{@code -Dcom.cloudbees.plugins.deployer.impl.run.UploadBandwidthGovernor.AGENT_LIMIT=...}</li>
+ * <li>{@code -Dcom.cloudbees.plugins.deployer.impl.run.UploadBandwidthGovernor.ENDPOINT_LIMIT=...} for every
+ * end-point</li>
+ * <li>{@code -Dcom.cloudbees.plugins.deployer.impl.run.UploadBandwidthGovernor.ENDPOINT_LIMIT.<host>=...} for the
+ * end-point on that host, overriding the previous one</li>
+ * </ul>
+ * Each bucket hands out tokens under a fair lock, so concurrent uploads take turns in arrival order and share the
+ * limit evenly. The lock is only held while the tokens are taken, an upload waits for the debt it ran up after
+ * releasing it.
+ *
+ * @since 6.1
+ */
+final class UploadBandwidthGovernor {
+
+    /**
+     * The limit for all uploads from this JVM.
+     */
+    private static final long AGENT_LIMIT =
+            Long.getLong(UploadBandwidthGovernor.class.getName() + ".AGENT_LIMIT", 0L);
+
+    /**
+     * The limit for all uploads from this JVM to any one end-point without a limit of its own.
+     */
+    private static final long ENDPOINT_LIMIT =
+            Long.getLong(UploadBandwidthGovernor.class.getName() + ".ENDPOINT_LIMIT", 0L);
+
+    /**
+     * The agent bucket or {@code null} if unlimited.
+     */
+    private static final Bucket agentBucket = AGENT_LIMIT > 0 ? new Bucket(AGENT_LIMIT) : null;
+
+    /**
+     * The per end-point buckets keyed by host, guarded by itself. Unlimited end-points have no entry.
+     */
+    private static final Map<String, Bucket> endpointBuckets = new HashMap<String, Bucket>();
+
+    private UploadBandwidthGovernor() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Opens a throttle for a new upload.
+     *
+     * @param endpoint the API end-point being uploaded to.
+     * @return the throttle.
+     */
+    @NonNull
+    static Throttle open(@NonNull String endpoint) {
+        List<Bucket> buckets = new ArrayList<Bucket>(2);
+        String host = hostOf(endpoint);
+        long limit = endpointLimit(host);
+        if (limit > 0) {
+            synchronized (endpointBuckets) {
+                Bucket bucket = endpointBuckets.get(host);
+                if (bucket == null) {
+                    bucket = new Bucket(limit);
+                    endpointBuckets.put(host, bucket);
+                }
+                buckets.add(bucket);
+            }
+        }
+        if (agentBucket != null) {
+            buckets.add(agentBucket);
+        }
+        return new Throttle(buckets);
+    }
+
+    /**
+     * Returns the limit for an end-point.
+     *
+     * @param host the host of the end-point.
+     * @return the limit in bytes per second or {@code 0} if unlimited.
+     */
+    static long endpointLimit(@NonNull String host) {
+        return Long.getLong(UploadBandwidthGovernor.class.getName() + ".ENDPOINT_LIMIT." + host, ENDPOINT_LIMIT);
+    }
+
+    /**
+     * Returns the host of an end-point URL, or the end-point itself if it is not a URL.
+     *
+     * @param endpoint the end-point.
+     * @return the host.
+     */
+    @NonNull
+    static String hostOf(@NonNull String endpoint) {
+        try {
+            String host = new URI(endpoint).getHost();
+            return host == null ? endpoint : host;
+        } catch (URISyntaxException e) {
+            return endpoint;
+        }
+    }
+
+    /**
+     * The throttle for a single upload, which also keeps track of how long the upload has been held back.
+     */
+    static final class Throttle {
+
+        @NonNull
+        private final List<Bucket> buckets;
+
+        private volatile long throttledNanos;
+
+        private volatile boolean waiting;
+
+        private Throttle(@NonNull List<Bucket> buckets) {
+            this.buckets = buckets.isEmpty() ? Collections.<Bucket>emptyList() : buckets;
+        }
+
+        /**
+         * Blocks until the specified number of bytes may be sent.
+         *
+         * @param bytes the number of bytes about to be sent.
+         * @throws IOException if interrupted.
+         */
+        void acquire(long bytes) throws IOException {
+            waiting = true;
+            try {
+                for (Bucket bucket : buckets) {
+                    throttledNanos += bucket.acquire(bytes);
+                }
+            } catch (InterruptedException e) {
+                InterruptedIOException ioe = new InterruptedIOException("Interrupted while throttled");
+                ioe.initCause(e);
+                throw ioe;
+            } finally {
+                waiting = false;
+            }
+        }
+
+        /**
+         * Returns {@code true} while the upload is waiting for the limit to allow more bytes.
+         *
+         * @return {@code true} while the upload is waiting for the limit to allow more bytes.
+         */
+        boolean isWaiting() {
+            return waiting;
+        }
+
+        /**
+         * Returns {@code true} if any limit applies.
+         *
+         * @return {@code true} if any limit applies.
+         */
+        boolean isLimited() {
+            return !buckets.isEmpty();
+        }
+
+        /**
+         * Returns the total time that the upload has been held back.
+         *
+         * @return the total time that the upload has been held back in milliseconds.
+         */
+        long getThrottledMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+        }
+    }
+
+    /**
+     * The source of time of a {@link Bucket}.
+     */
+    interface Clock {
+
+        /**
+         * The system clock.
+         */
+        Clock SYSTEM = new Clock() {
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            public void sleep(long nanos) throws InterruptedException {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+        };
+
+        /**
+         * Returns the current time.
+         *
+         * @return the current time in nanoseconds, only meaningful relative to other values from the same clock.
+         */
+        long nanoTime();
+
+        /**
+         * Waits for the specified time.
+         *
+         * @param nanos the time to wait in nanoseconds.
+         * @throws InterruptedException if interrupted.
+         */
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    /**
+     * A token bucket holding at most one second's worth of tokens. Uploads take tokens in slices that may be larger
+     * than the bucket, leaving it in debt, so the refill is not capped: a debt is only repaid by the time that has
+     * passed since it was taken on.
+     */
+    static final class Bucket {
+
+        private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final long rate;
+
+        @NonNull
+        private final Clock clock;
+
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        private long tokens;
+
+        private long lastRefill;
+
+        Bucket(long rate) {
+            this(rate, Clock.SYSTEM);
+        }
+
+        Bucket(long rate, @NonNull Clock clock) {
+            this.rate = rate;
+            this.clock = clock;
+            this.tokens = rate;
+            this.lastRefill = clock.nanoTime();
+        }
+
+        /**
+         * Takes tokens from the bucket and, if that leaves it in debt, waits until the debt is repaid. The tokens are
+         * taken under the fair lock, so each upload's wait includes the debt of the uploads ahead of it and none can
+         * overtake, but the wait itself happens outside the lock.
+         *
+         * @param bytes the number of tokens to take.
+         * @return the number of nanoseconds spent waiting.
+         * @throws InterruptedException if interrupted.
+         */
+        long acquire(long bytes) throws InterruptedException {
+            long start = clock.nanoTime();
+            long wait = 0;
+            lock.lockInterruptibly();
+            try {
+                long now = clock.nanoTime();
+                refill(now - lastRefill);
+                lastRefill = now;
+                tokens -= bytes;
+                if (tokens < 0) {
+                    wait = (long) ((double) -tokens * NANOS_PER_SECOND / rate);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (wait > 0) {
+                clock.sleep(wait);
+            }
+            return clock.nanoTime() - start;
+        }
+
+        /**
+         * Adds the tokens accrued over the specified time, up to a full bucket.
+         *
+         * @param elapsed the time since the last refill in nanoseconds.
+         */
+        private void refill(long elapsed) {
+            long missing = rate - tokens;
+            long seconds = elapsed / NANOS_PER_SECOND;
+            if (seconds > missing / rate) {
+                // long idle periods would overflow elapsed * rate, but they fill the bucket anyway
+                tokens = rate;
+            } else {
+                long accrued = seconds * rate
+                        + (long) ((double) (elapsed % NANOS_PER_SECOND) * rate / NANOS_PER_SECOND);
+                tokens = Math.min(rate, tokens + accrued);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.api.UploadProgress;
+
+/**
+ * An {@link UploadProgress} that also wants to hear about the upload events raised by {@link PooledBeesClient}.
+ *
+ * @since 6.1
+ */
+interface UploadListener extends UploadProgress {
+
+    /**
+     * Called when an upload attempt failed and is about to be retried.
+     *
+     * @param attempt the attempt that failed, starting from {@code 1}.
+     * @param delay   the number of milliseconds before the next attempt.
+     * @param cause   the failure.
+     */
+    void handleRetry(int attempt, long delay, Exception cause);
+
+    /**
+     * Called when an upload attempt is aborted by the {@link UploadWatchdog} because it stopped making progress. The
+     * attempt is then retried or failed in the usual way.
+     *
+     * @param attempt the attempt that stalled, starting from {@code 1}.
+     * @param idle    the number of milliseconds without progress.
+     * @param window  the stall window in milliseconds that was exceeded.
+     */
+    void handleStalled(int attempt, long idle, long window);
+
+    /**
+     * Called when an upload that is subject to a {@link UploadBandwidthGovernor} limit finishes.
+     *
+     * @param throttled the total number of milliseconds the upload was held back.
+     */
+    void handleThrottled(long throttled);
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the progress of an upload without taking a lock on the per-chunk callback. Each callback only publishes
+ * the byte count and compares it with the next checkpoint; the clock is read at most once every
+ * {@link #CHECKPOINT_BYTES} and the thread that moves the checkpoint is the one that reports, so reports never
+ * overlap. A report is made every 5% of the upload or every 15 seconds, whichever comes first, and a final report
+ * once the last byte has been written. Reports go to {@link #reportProgress(UploadStatistics)},
+ * {@link #reportCompleted(UploadStatistics)} and to any registered {@link Observer}.
+ *
+ * @since 6.1
+ */
+abstract class UploadProgressTracker implements UploadListener {
+
+    /**
+     * How many bytes may be written between looks at the clock.
+     */
+    static final long CHECKPOINT_BYTES = 64 * 1024;
+
+    /**
+     * The longest time between reports.
+     */
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(15);
+
+    private final List<Observer> observers = new CopyOnWriteArrayList<Observer>();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong nextCheckpoint = new AtomicLong();
+
+    private volatile long toSend = -1;
+
+    private volatile long started;
+
+    private volatile long lastReportNanos;
+
+    private volatile long lastReportBytes;
+
+    private volatile long nextReportBytes;
+
+    private volatile boolean completed;
+
+    /**
+     * Registers an observer of this upload.
+     *
+     * @param observer the observer.
+     */
+    void addObserver(@NonNull Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void handleBytesWritten(long deltaCount, long totalWritten, long totalToSend) {
+        written.set(totalWritten);
+        long checkpoint = nextCheckpoint.get();
+        boolean last = totalToSend >= 0 && totalWritten >= totalToSend;
+        if (totalWritten < checkpoint && !last) {
+            return;
+        }
+        if (!nextCheckpoint.compareAndSet(checkpoint, last ? Long.MAX_VALUE : totalWritten + CHECKPOINT_BYTES)) {
+            return; // another thread is reporting
+        }
+        long now = System.nanoTime();
+        if (started == 0) {
+            started = now - 1; // never zero once started
+            lastReportNanos = now;
+            toSend = totalToSend;
+            nextReportBytes = totalToSend < 0 ? Long.MAX_VALUE : Math.max(totalToSend / 20, 512);
+        }
+        if (last) {
+            if (!completed) {
+                completed = true;
+                UploadStatistics statistics = snapshot(now, totalWritten);
+                reportCompleted(statistics);
+                for (Observer observer : observers) {
+                    observer.uploadCompleted(statistics);
+                }
+            }
+        } else if (totalWritten >= nextReportBytes || now - lastReportNanos >= REPORT_INTERVAL) {
+            UploadStatistics statistics = snapshot(now, totalWritten);
+            lastReportNanos = now;
+            lastReportBytes = totalWritten;
+            nextReportBytes = totalToSend < 0 ? Long.MAX_VALUE : totalWritten + Math.max(totalToSend / 20, 512);
+            reportProgress(statistics);
+            for (Observer observer : observers) {
+                observer.uploadProgress(statistics);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the upload so far.
+     *
+     * @return the statistics of the upload so far.
+     */
+    @NonNull
+    UploadStatistics getStatistics() {
+        return snapshot(System.nanoTime(), written.get());
+    }
+
+    /**
+     * Forgets the progress so far, called when an upload is about to be attempted again.
+     */
+    protected final void reset() {
+        started = 0;
+        completed = false;
+        lastReportBytes = 0;
+        written.set(0);
+        nextCheckpoint.set(0);
+    }
+
+    private UploadStatistics snapshot(long now, long bytes) {
+        long start = started;
+        if (start == 0) {
+            return new UploadStatistics(bytes, toSend, 0, 0.0);
+        }
+        long interval = now - lastReportNanos;
+        double currentRate = interval <= 0
+                ? 0.0
+                : (bytes - lastReportBytes) * (double) TimeUnit.SECONDS.toNanos(1) / interval;
+        return new UploadStatistics(bytes, toSend, now - start, currentRate);
+    }
+
+    /**
+     * Called with the statistics of an upload in progress.
+     *
+     * @param statistics the statistics.
+     */
+    protected abstract void reportProgress(@NonNull UploadStatistics statistics);
+
+    /**
+     * Called once the last byte of an upload has been written.
+     *
+     * @param statistics the statistics.
+     */
+    protected abstract void reportCompleted(@NonNull UploadStatistics statistics);
+
+    /**
+     * Something that wants to follow the progress of an upload.
+     */
+    interface Observer {
+
+        /**
+         * Called with the statistics of an upload in progress.
+         *
+         * @param statistics the statistics.
+         */
+        void uploadProgress(@NonNull UploadStatistics statistics);
+
+        /**
+         * Called once the last byte of an upload has been written.
+         *
+         * @param statistics the statistics.
+         */
+        void uploadCompleted(@NonNull UploadStatistics statistics);
+    }
+}
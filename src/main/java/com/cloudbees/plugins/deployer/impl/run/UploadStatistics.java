@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the progress of an upload as measured by an {@link UploadProgressTracker}.
+ *
+ * @since 6.1
+ */
+@Immutable
+final class UploadStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long bytesWritten;
+
+    private final long bytesToSend;
+
+    private final long elapsedNanos;
+
+    private final double currentRate;
+
+    UploadStatistics(long bytesWritten, long bytesToSend, long elapsedNanos, double currentRate) {
+        this.bytesWritten = bytesWritten;
+        this.bytesToSend = bytesToSend;
+        this.elapsedNanos = elapsedNanos;
+        this.currentRate = currentRate;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the number of bytes written so far.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the total number of bytes to send or {@code -1} if unknown.
+     *
+     * @return the total number of bytes to send or {@code -1} if unknown.
+     */
+    long getBytesToSend() {
+        return bytesToSend;
+    }
+
+    /**
+     * Returns the time since the first byte was written.
+     *
+     * @return the time since the first byte was written in milliseconds.
+     */
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Returns the throughput since the previous report.
+     *
+     * @return the throughput since the previous report in bytes per second.
+     */
+    double getCurrentRate() {
+        return currentRate;
+    }
+
+    /**
+     * Returns the throughput since the first byte was written.
+     *
+     * @return the throughput since the first byte was written in bytes per second.
+     */
+    double getAverageRate() {
+        return elapsedNanos <= 0 ? 0.0 : bytesWritten * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Returns the estimated time to completion based on the current throughput.
+     *
+     * @return the estimated time to completion in seconds or {@code -1} if it cannot be estimated.
+     */
+    long getEtaSeconds() {
+        double rate = currentRate > 0 ? currentRate : getAverageRate();
+        if (bytesToSend < 0 || rate <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, bytesToSend - bytesWritten) / rate);
+    }
+}
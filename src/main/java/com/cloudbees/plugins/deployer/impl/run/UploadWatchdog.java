@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.deployer.NamedThreadFactory;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import org.apache.commons.httpclient.HttpMethod;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts an upload whose request body has stopped making progress. A socket timeout only covers reads, so a
+ * stalled write would otherwise block until the operating system gives up on the connection. The stall window is
+ * derived from the throughput observed so far: it is the time the upload would take to send
+ * {@link #STALL_SLICES} slices at that rate, bounded by {@link #MIN_STALL_WINDOW} and {@link #MAX_STALL_WINDOW}.
+ * Time spent held back by the {@link UploadBandwidthGovernor} does not count as a stall. The upload is also aborted
+ * if sending the whole request body takes longer than the send timeout, again not counting the time held back.
+ * Waiting for the response is left to the socket timeout.
+ *
+ * @since 6.1
+ */
+final class UploadWatchdog implements Runnable {
+
+    /**
+     * The shortest time without progress that is considered a stall.
+     */
+    private static final long MIN_STALL_WINDOW = Long.getLong(UploadWatchdog.class.getName() + ".MIN_STALL_WINDOW",
+            TimeUnit.SECONDS.toMillis(30));
+
+    /**
+     * The longest time without progress that is tolerated, also used before any throughput has been observed.
+     */
+    private static final long MAX_STALL_WINDOW = Long.getLong(UploadWatchdog.class.getName() + ".MAX_STALL_WINDOW",
+            TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * How many {@link FileChannelPart#SLICE_SIZE} slices' worth of time at the observed rate make up the window.
+     */
+    private static final int STALL_SLICES = Integer.getInteger(UploadWatchdog.class.getName() + ".STALL_SLICES", 20);
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("PooledBeesClient:UploadWatchdog", new DaemonThreadFactory()));
+
+    @NonNull
+    private final HttpMethod method;
+
+    @NonNull
+    private final UploadBandwidthGovernor.Throttle throttle;
+
+    private final long sendTimeout;
+
+    private final long throttledAtStart;
+
+    private final long started = System.nanoTime();
+
+    private volatile long lastProgress = started;
+
+    private volatile long written;
+
+    private volatile boolean sent;
+
+    private volatile long stalledIdle = -1;
+
+    private volatile long stalledWindow;
+
+    private ScheduledFuture<?> future;
+
+    private UploadWatchdog(@NonNull HttpMethod method, @NonNull UploadBandwidthGovernor.Throttle throttle,
+                           long sendTimeout) {
+        this.method = method;
+        this.throttle = throttle;
+        this.sendTimeout = sendTimeout;
+        this.throttledAtStart = throttle.getThrottledMillis();
+    }
+
+    /**
+     * Starts watching an upload.
+     *
+     * @param method      the method to abort if the upload stalls.
+     * @param throttle    the throttle applied to the upload.
+     * @param sendTimeout how long sending the request body may take in milliseconds.
+     * @return the watchdog, which must be {@link #stop()}ped.
+     */
+    @NonNull
+    static UploadWatchdog start(@NonNull HttpMethod method, @NonNull UploadBandwidthGovernor.Throttle throttle,
+                                long sendTimeout) {
+        UploadWatchdog watchdog = new UploadWatchdog(method, throttle, sendTimeout);
+        watchdog.future = timer.scheduleWithFixedDelay(watchdog, 1, 1, TimeUnit.SECONDS);
+        return watchdog;
+    }
+
+    /**
+     * Records progress.
+     *
+     * @param totalWritten the total number of bytes written so far.
+     * @param totalToSend  the total number of bytes in the request body.
+     */
+    void progress(long totalWritten, long totalToSend) {
+        written = totalWritten;
+        lastProgress = System.nanoTime();
+        if (totalToSend >= 0 && totalWritten >= totalToSend) {
+            // from here on we are waiting for the response which is covered by the socket timeout
+            sent = true;
+        }
+    }
+
+    /**
+     * Stops watching.
+     */
+    void stop() {
+        sent = true;
+        future.cancel(false);
+    }
+
+    /**
+     * Returns {@code true} if the upload was aborted as stalled.
+     *
+     * @return {@code true} if the upload was aborted as stalled.
+     */
+    boolean isStalled() {
+        return stalledIdle >= 0;
+    }
+
+    /**
+     * Returns how long the upload had made no progress when it was aborted.
+     *
+     * @return how long the upload had made no progress when it was aborted in milliseconds.
+     */
+    long getStalledIdleMillis() {
+        return stalledIdle;
+    }
+
+    /**
+     * Returns the stall window that applied when the upload was aborted.
+     *
+     * @return the stall window that applied when the upload was aborted in milliseconds.
+     */
+    long getStalledWindowMillis() {
+        return stalledWindow;
+    }
+
+    /**
+     * Returns the current stall window.
+     *
+     * @return the current stall window in milliseconds.
+     */
+    long getWindowMillis() {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(lastProgress - started);
+        long bytes = written;
+        if (bytes <= 0 || elapsed <= 0) {
+            return MAX_STALL_WINDOW;
+        }
+        long window = STALL_SLICES * FileChannelPart.SLICE_SIZE * elapsed / bytes;
+        return Math.max(MIN_STALL_WINDOW, Math.min(MAX_STALL_WINDOW, window));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        if (sent) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (throttle.isWaiting()) {
+            lastProgress = now;
+            return;
+        }
+        long idle = TimeUnit.NANOSECONDS.toMillis(now - lastProgress);
+        long window = getWindowMillis();
+        long sending = TimeUnit.NANOSECONDS.toMillis(now - started)
+                - (throttle.getThrottledMillis() - throttledAtStart);
+        if (sending > sendTimeout) {
+            sent = true;
+            method.abort();
+        } else if (idle > window) {
+            stalledWindow = window;
+            stalledIdle = idle;
+            sent = true;
+            method.abort();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.deployer.NamedThreadFactory;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Hudson;
+import hudson.remoting.Callable;
+import hudson.util.DaemonThreadFactory;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Probes freshly deployed applications on behalf of a build. Once a target has been deployed its URL is polled with
+ * exponential backoff until the application answers, after which the configured warm-up requests are sent with at
+ * most {@link #CONCURRENCY} in flight per application. Each target is probed as soon as its deployment completes,
+ * so the probes of a multi-target host overlap with each other and with the remaining deployments. The
+ * {@link RunEngineImpl} waits for all probes before it finishes and records the outcome in a {@link WarmUpAction}.
+ * A failed probe is reported but does not fail the build. An application is ready once it answers with a
+ * {@code 2xx} or {@code 3xx} status. As the probes run on the master, they only ever go to the host of the deployed
+ * application: warm-up requests for other hosts are dropped and redirects are not followed.
+ *
+ * @since 6.1
+ */
+final class WarmUp {
+
+    /**
+     * The maximum number of warm-up requests in flight per application.
+     */
+    private static final int CONCURRENCY = Integer.getInteger(WarmUp.class.getName() + ".CONCURRENCY", 4);
+
+    /**
+     * How long an application may take to answer after its deployment.
+     */
+    private static final long READY_TIMEOUT = Long.getLong(WarmUp.class.getName() + ".READY_TIMEOUT",
+            TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * The timeout of each individual request.
+     */
+    private static final int REQUEST_TIMEOUT = Integer.getInteger(WarmUp.class.getName() + ".REQUEST_TIMEOUT",
+            (int) TimeUnit.SECONDS.toMillis(30));
+
+    private static final long INITIAL_BACKOFF = 500;
+
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(15);
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new NamedThreadFactory("RunEngineImpl:warm-up", new DaemonThreadFactory()));
+
+    /**
+     * The warm-ups of the running builds keyed by token.
+     */
+    private static final Map<String, WarmUp> active = new ConcurrentHashMap<String, WarmUp>();
+
+    private static final Random random = new Random();
+
+    private final String token = UUID.randomUUID().toString();
+
+    private final AbstractBuild<?, ?> build;
+
+    private final BuildListener listener;
+
+    private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+
+    private final HttpClient httpClient;
+
+    /**
+     * The probes in the order that they were started, guarded by itself.
+     */
+    private final List<Future<WarmUpAction.Result>> probes = new ArrayList<Future<WarmUpAction.Result>>();
+
+    private WarmUp(@NonNull AbstractBuild<?, ?> build, @NonNull BuildListener listener) {
+        this.build = build;
+        this.listener = listener;
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(CONCURRENCY + 1);
+        connectionManager.getParams().setConnectionTimeout(REQUEST_TIMEOUT);
+        connectionManager.getParams().setSoTimeout(REQUEST_TIMEOUT);
+        httpClient = new HttpClient(connectionManager);
+        ProxyConfiguration proxy = Hudson.getInstance() == null ? null : Hudson.getInstance().proxy;
+        if (proxy != null) {
+            httpClient.getHostConfiguration().setProxy(proxy.name, proxy.port);
+            if (proxy.getUserName() != null) {
+                httpClient.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(proxy.getUserName(), proxy.getPassword()));
+            }
+        }
+    }
+
+    /**
+     * Starts accepting probes for a build.
+     *
+     * @param build    the build.
+     * @param listener the listener to report to.
+     * @return the warm-up, which must be {@link #close()}d.
+     */
+    @NonNull
+    static WarmUp open(@NonNull AbstractBuild<?, ?> build, @NonNull BuildListener listener) {
+        WarmUp warmUp = new WarmUp(build, listener);
+        active.put(warmUp.token, warmUp);
+        return warmUp;
+    }
+
+    /**
+     * Returns the token that deployments use to start probes from the node they run on.
+     *
+     * @return the token.
+     */
+    @NonNull
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Starts probing a deployed application.
+     *
+     * @param applicationId the application.
+     * @param url           the URL of the application.
+     * @param paths         the paths to request once the application is ready.
+     */
+    void start(@NonNull final String applicationId, @NonNull final String url, @NonNull final List<String> paths) {
+        listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] Waiting for {0} to answer at {1}",
+                applicationId, url));
+        Future<WarmUpAction.Result> future = executor.submit(new java.util.concurrent.Callable<WarmUpAction.Result>() {
+            public WarmUpAction.Result call() throws Exception {
+                return probe(applicationId, url, paths);
+            }
+        });
+        synchronized (probes) {
+            probes.add(future);
+        }
+    }
+
+    /**
+     * Waits for the probes that have been started, records their outcome against the build and stops accepting
+     * probes.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void close() throws InterruptedException {
+        active.remove(token);
+        try {
+            List<Future<WarmUpAction.Result>> probes;
+            synchronized (this.probes) {
+                probes = new ArrayList<Future<WarmUpAction.Result>>(this.probes);
+            }
+            if (probes.isEmpty()) {
+                return;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READY_TIMEOUT + REQUEST_TIMEOUT);
+            WarmUpAction action = new WarmUpAction();
+            for (Future<WarmUpAction.Result> probe : probes) {
+                try {
+                    WarmUpAction.Result result = probe.get(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                    action.add(result);
+                    log(result);
+                } catch (ExecutionException e) {
+                    listener.error("[cloudbees-deployer] Could not probe a deployed application: "
+                            + e.getCause().getMessage());
+                } catch (TimeoutException e) {
+                    probe.cancel(true);
+                    listener.error("[cloudbees-deployer] Gave up waiting for a deployed application to warm up");
+                }
+            }
+            build.addAction(action);
+        } catch (InterruptedException e) {
+            synchronized (probes) {
+                for (Future<WarmUpAction.Result> probe : probes) {
+                    probe.cancel(true);
+                }
+            }
+            throw e;
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    private void log(WarmUpAction.Result result) {
+        if (!result.isReady()) {
+            listener.error(MessageFormat.format("[cloudbees-deployer] {0} did not answer within {1} seconds",
+                    result.getApplicationId(), TimeUnit.MILLISECONDS.toSeconds(result.getTimeToReadyMillis())));
+        } else if (result.getRequests() == 0) {
+            listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] {0} was ready after "
+                    + "{1,number,0.0} seconds", result.getApplicationId(), result.getTimeToReadyMillis() / 1000.0));
+        } else {
+            listener.getLogger().println(MessageFormat.format("[cloudbees-deployer] {0} was ready after "
+                    + "{1,number,0.0} seconds, warmed up with {2} requests ({3} failed), latency p50 {4} ms, "
+                    + "p95 {5} ms, p99 {6} ms", result.getApplicationId(), result.getTimeToReadyMillis() / 1000.0,
+                    result.getRequests(), result.getFailures(), result.getP50(), result.getP95(), result.getP99()));
+        }
+    }
+
+    private WarmUpAction.Result probe(String applicationId, String url, List<String> paths)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(READY_TIMEOUT);
+        long backoff = INITIAL_BACKOFF;
+        boolean ready = false;
+        while (true) {
+            if (isReady(request(url))) {
+                ready = true;
+                break;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            // jitter so that the probes of several targets do not line up
+            Thread.sleep(Math.min(remaining, backoff / 2 + (long) (random.nextDouble() * backoff / 2)));
+            backoff = Math.min(MAX_BACKOFF, backoff * 2);
+        }
+        long timeToReady = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!ready || paths.isEmpty()) {
+            return new WarmUpAction.Result(applicationId, url, ready, timeToReady, Collections.<Long>emptyList(), 0);
+        }
+        final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+        for (String path : paths) {
+            String resolved = resolve(url, path);
+            if (resolved == null) {
+                listener.error(MessageFormat.format("[cloudbees-deployer] Ignoring the warm-up request {0} as it is "
+                        + "not for the host of {1}", path, applicationId));
+            } else {
+                pending.add(resolved);
+            }
+        }
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final int[] failures = new int[1];
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int i = 0; i < Math.min(CONCURRENCY, pending.size()); i++) {
+            workers.add(executor.submit(new Runnable() {
+                public void run() {
+                    for (String next = pending.poll(); next != null && !Thread.currentThread().isInterrupted();
+                         next = pending.poll()) {
+                        long started = System.nanoTime();
+                        int status = request(next);
+                        latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                        if (!isReady(status)) {
+                            synchronized (failures) {
+                                failures[0]++;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            // the workers do not throw
+        } finally {
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+        synchronized (failures) {
+            return new WarmUpAction.Result(applicationId, url, true, timeToReady, latencies, failures[0]);
+        }
+    }
+
+    /**
+     * Returns {@code true} if a status shows that the application is up and serving, rather than still starting
+     * behind the RUN@cloud routers (which answer {@code 502}, {@code 503} and {@code 504} meanwhile) or failing.
+     */
+    static boolean isReady(int status) {
+        return status >= 200 && status < 400;
+    }
+
+    /**
+     * Sends a request. Redirects are not followed, as they could lead the master anywhere.
+     *
+     * @param url the URL.
+     * @return the status code, or {@code -1} if the application could not be reached.
+     */
+    private int request(String url) {
+        GetMethod method = new GetMethod(url);
+        method.setFollowRedirects(false);
+        try {
+            return httpClient.executeMethod(method);
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Resolves a warm-up path against the URL of the application.
+     *
+     * @return the URL to request or {@code null} if it is not on the host of the application.
+     */
+    @CheckForNull
+    static String resolve(@NonNull String url, @NonNull String path) {
+        String resolved = path.startsWith("http://") || path.startsWith("https://")
+                ? path
+                : (url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + (path.startsWith("/") ? "" : "/")
+                        + path;
+        try {
+            URI application = new URI(url);
+            URI request = new URI(resolved);
+            if (application.getHost() == null || !application.getHost().equalsIgnoreCase(request.getHost())
+                    || application.getPort() != request.getPort() || request.getUserInfo() != null) {
+                return null;
+            }
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        return resolved;
+    }
+
+    /**
+     * Starts probing an application on the master when invoked from an agent.
+     */
+    static final class StartCallable implements Callable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+        private final String applicationId;
+        private final String url;
+        private final ArrayList<String> paths;
+
+        StartCallable(String token, String applicationId, String url, List<String> paths) {
+            this.token = token;
+            this.applicationId = applicationId;
+            this.url = url;
+            this.paths = new ArrayList<String>(paths);
+        }
+
+        public Void call() {
+            WarmUp warmUp = active.get(token);
+            if (warmUp != null) {
+                // otherwise the build has moved on, e.g. an activation that completed in the background
+                warmUp.start(applicationId, url, paths);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Action;
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records how long the applications deployed by a build took to answer and how fast they served the warm-up
+ * requests, see {@link WarmUp}.
+ *
+ * @since 6.1
+ */
+public class WarmUpAction implements Action {
+
+    /**
+     * The results, guarded by itself.
+     */
+    private final List<Result> results = new ArrayList<Result>();
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDisplayName() {
+        return Messages.WarmUpAction_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Returns the result for each application in the order that they were deployed.
+     *
+     * @return the result for each application in the order that they were deployed.
+     */
+    @NonNull
+    public List<Result> getResults() {
+        synchronized (results) {
+            return Collections.unmodifiableList(new ArrayList<Result>(results));
+        }
+    }
+
+    void add(@NonNull Result result) {
+        synchronized (results) {
+            results.add(result);
+        }
+    }
+
+    /**
+     * The readiness and warm-up of one application.
+     */
+    @Immutable
+    public static final class Result {
+
+        @NonNull
+        private final String applicationId;
+
+        @NonNull
+        private final String url;
+
+        private final boolean ready;
+
+        /**
+         * From the end of the deployment until the application answered, or until we gave up.
+         */
+        private final long timeToReadyMillis;
+
+        private final int requests;
+
+        private final int failures;
+
+        private final long p50;
+
+        private final long p95;
+
+        private final long p99;
+
+        private final long max;
+
+        Result(@NonNull String applicationId, @NonNull String url, boolean ready, long timeToReadyMillis,
+               @NonNull List<Long> latencies, int failures) {
+            this.applicationId = applicationId;
+            this.url = url;
+            this.ready = ready;
+            this.timeToReadyMillis = timeToReadyMillis;
+            this.failures = failures;
+            List<Long> sorted = new ArrayList<Long>(latencies);
+            Collections.sort(sorted);
+            this.requests = sorted.size();
+            this.p50 = percentile(sorted, 0.50);
+            this.p95 = percentile(sorted, 0.95);
+            this.p99 = percentile(sorted, 0.99);
+            this.max = sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1);
+        }
+
+        /**
+         * Returns the nearest-rank percentile of a sorted list.
+         */
+        static long percentile(@NonNull List<Long> sorted, double fraction) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+
+        @NonNull
+        public String getApplicationId() {
+            return applicationId;
+        }
+
+        @NonNull
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isReady() {
+            return ready;
+        }
+
+        public long getTimeToReadyMillis() {
+            return timeToReadyMillis;
+        }
+
+        public int getRequests() {
+            return requests;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
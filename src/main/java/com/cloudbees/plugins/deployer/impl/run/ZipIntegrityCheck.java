@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+
+/**
+ * Checks the structure of a zip archive without inflating it. Only the end of central directory record, the central
+ * directory and the local header of each entry are read, using positioned reads, so even a large archive is checked
+ * in milliseconds. This catches the usual ways an archive gets broken on its way to the deployer, such as a truncated
+ * copy or a build that was killed while packaging, before any of it is uploaded. The contents of the archive are not
+ * judged: a {@code .war} of static resources without {@code WEB-INF/} is as deployable as any other.
+ *
+ * @since 6.1
+ */
+final class ZipIntegrityCheck {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+
+    private static final int CENTRAL_HEADER = 0x02014b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private ZipIntegrityCheck() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Checks an archive.
+     *
+     * @param archive the archive.
+     * @return why the archive is broken or {@code null} if it looks sound.
+     * @throws IOException if the archive could not be read.
+     */
+    @CheckForNull
+    static String check(@NonNull File archive) throws IOException {
+        FileInputStream in = new FileInputStream(archive);
+        try {
+            return check(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String check(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            return "not a zip archive";
+        }
+        long tailStart = Math.max(0, size - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT);
+        ByteBuffer tail = read(channel, tailStart, (int) (size - tailStart));
+        int eocd = -1;
+        for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY
+                    && i + END_OF_CENTRAL_DIRECTORY_SIZE + unsignedShort(tail, i + 20) == tail.limit()) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return "no end of central directory record, the archive is truncated or not a zip archive";
+        }
+        long eocdPosition = tailStart + eocd;
+        if (unsignedShort(tail, eocd + 4) != 0 || unsignedShort(tail, eocd + 6) != 0) {
+            return "spanned archives are not supported";
+        }
+        long entries = unsignedShort(tail, eocd + 10);
+        long directorySize = unsignedInt(tail, eocd + 12);
+        long directoryOffset = unsignedInt(tail, eocd + 16);
+        long directoryEnd = eocdPosition;
+        if (entries == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            if (eocdPosition < ZIP64_LOCATOR_SIZE) {
+                return "missing zip64 end of central directory locator";
+            }
+            ByteBuffer locator = read(channel, eocdPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_LOCATOR) {
+                return "missing zip64 end of central directory locator";
+            }
+            long zip64Position = locator.getLong(8);
+            if (zip64Position < 0 || zip64Position + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > eocdPosition) {
+                return "the zip64 end of central directory record is out of bounds";
+            }
+            ByteBuffer zip64 = read(channel, zip64Position, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                return "corrupt zip64 end of central directory record";
+            }
+            entries = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+            directoryEnd = zip64Position;
+        }
+        if (entries == 0) {
+            return "the archive is empty";
+        }
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > directoryEnd
+                || directorySize > Integer.MAX_VALUE) {
+            return MessageFormat.format("the central directory ({0} bytes at offset {1}) does not fit in the "
+                    + "archive, it is probably truncated", directorySize, directoryOffset);
+        }
+        ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        for (long entry = 0; entry < entries; entry++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit()
+                    || directory.getInt(position) != CENTRAL_HEADER) {
+                return MessageFormat.format("corrupt central directory at entry {0} of {1}", entry + 1, entries);
+            }
+            long compressedSize = unsignedInt(directory, position + 20);
+            long uncompressedSize = unsignedInt(directory, position + 24);
+            int nameLength = unsignedShort(directory, position + 28);
+            int extraLength = unsignedShort(directory, position + 30);
+            int commentLength = unsignedShort(directory, position + 32);
+            long localOffset = unsignedInt(directory, position + 42);
+            int name = position + CENTRAL_HEADER_SIZE;
+            int next = name + nameLength + extraLength + commentLength;
+            if (next > directory.limit()) {
+                return MessageFormat.format("corrupt central directory at entry {0} of {1}", entry + 1, entries);
+            }
+            if (uncompressedSize == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localOffset == ZIP64_MAGIC) {
+                // the zip64 extended information holds the values that overflowed, in this order
+                int extra = findExtra(directory, name + nameLength, extraLength, 0x0001);
+                if (extra < 0) {
+                    return MessageFormat.format("missing zip64 extended information at entry {0} of {1}",
+                            entry + 1, entries);
+                }
+                int extraEnd = extra + 4 + unsignedShort(directory, extra + 2);
+                int value = extra + 4;
+                if (uncompressedSize == ZIP64_MAGIC) {
+                    value += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    if (value + 8 > extraEnd) {
+                        return MessageFormat.format("corrupt zip64 extended information at entry {0} of {1}",
+                                entry + 1, entries);
+                    }
+                    compressedSize = directory.getLong(value);
+                    value += 8;
+                }
+                if (localOffset == ZIP64_MAGIC) {
+                    if (value + 8 > extraEnd) {
+                        return MessageFormat.format("corrupt zip64 extended information at entry {0} of {1}",
+                                entry + 1, entries);
+                    }
+                    localOffset = directory.getLong(value);
+                }
+            }
+            if (localOffset < 0 || localOffset + LOCAL_HEADER_SIZE > directoryOffset) {
+                return MessageFormat.format("entry {0} of {1} starts outside the archive", entry + 1, entries);
+            }
+            local.clear();
+            readFully(channel, local, localOffset);
+            if (local.getInt(0) != LOCAL_HEADER) {
+                return MessageFormat.format("corrupt local header for entry {0} of {1} at offset {2}",
+                        entry + 1, entries, localOffset);
+            }
+            long dataEnd = localOffset + LOCAL_HEADER_SIZE + unsignedShort(local, 26) + unsignedShort(local, 28)
+                    + compressedSize;
+            if (dataEnd > directoryOffset) {
+                return MessageFormat.format("entry {0} of {1} extends past the central directory, the archive is "
+                        + "probably truncated", entry + 1, entries);
+            }
+            position = next;
+        }
+        return null;
+    }
+
+    private static int findExtra(ByteBuffer buffer, int start, int length, int id) {
+        int position = start;
+        while (position + 4 <= start + length) {
+            if (unsignedShort(buffer, position) == id) {
+                return position + 4 + unsignedShort(buffer, position + 2) <= start + length ? position : -1;
+            }
+            position += 4 + unsignedShort(buffer, position + 2);
+        }
+        return -1;
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long unsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, position);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of archive at offset " + offset);
+            }
+            offset += count;
+        }
+        buffer.flip();
+    }
+}
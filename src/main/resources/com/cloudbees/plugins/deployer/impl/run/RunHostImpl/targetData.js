@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/*
+ * Fills the region of every RUN@cloud target on the page, and suggests application IDs, from a single
+ * RunHostImpl/targetData request per user and account. Targets asking for the same data while it is being
+ * fetched wait for that request. The data is kept for as long as the server caches it, and dropped as soon as the
+ * user, the account or the choice of credentials changes, as the credentials behind them may have changed too.
+ */
+(function () {
+    var requests = {};
+    var lists = 0;
+    var TTL = 60000;
+
+    function load(url, callback) {
+        var request = requests[url];
+        if (request && request.data && new Date().getTime() - request.loaded > TTL) {
+            delete requests[url];
+            request = null;
+        }
+        if (request) {
+            if (request.data) {
+                callback(request.data);
+            } else {
+                request.callbacks.push(callback);
+            }
+            return;
+        }
+        request = requests[url] = {data: null, callbacks: [callback]};
+        new Ajax.Request(url, {
+            method: "get",
+            onComplete: function (rsp) {
+                var data = null;
+                if (rsp.status == 200) {
+                    try {
+                        data = rsp.responseText.evalJSON();
+                    } catch (e) {
+                        data = null;
+                    }
+                }
+                if (data == null) {
+                    data = {applications: {}, endpoints: [], error: "Could not list the applications (HTTP "
+                        + rsp.status + ")"};
+                }
+                if (data.error) {
+                    // show the error to the targets waiting for it, but try again next time
+                    if (requests[url] === request) {
+                        delete requests[url];
+                    }
+                } else {
+                    request.data = data;
+                    request.loaded = new Date().getTime();
+                }
+                for (var i = 0; i < request.callbacks.length; i++) {
+                    request.callbacks[i](data);
+                }
+                request.callbacks = [];
+            }
+        });
+    }
+
+    function listOf(data) {
+        if (!data.listId) {
+            data.listId = "run-target-applications-" + (lists++);
+            var list = document.createElement("datalist");
+            list.id = data.listId;
+            for (var name in data.applications) {
+                if (data.applications.hasOwnProperty(name)) {
+                    var option = document.createElement("option");
+                    option.value = name;
+                    list.appendChild(option);
+                }
+            }
+            document.body.appendChild(list);
+        }
+        return data.listId;
+    }
+
+    function fill(select, input, data) {
+        var current = select.value;
+        var region = input ? data.applications[input.value] : null;
+        var found = false;
+        select.options.length = 0;
+        for (var i = 0; i < data.endpoints.length; i++) {
+            var endpoint = data.endpoints[i];
+            var selected = region ? endpoint.region.toUpperCase() == region.toUpperCase()
+                : endpoint.value == current;
+            if (selected && !found) {
+                found = true;
+            } else {
+                selected = false;
+            }
+            select.options[select.options.length] = new Option(endpoint.region, endpoint.value, selected, selected);
+        }
+        if (!found && current) {
+            // keep an end-point that the account no longer lists rather than silently changing it
+            select.options[select.options.length] = new Option(current, current, true, true);
+        }
+        if (input && !data.error) {
+            input.setAttribute("list", listOf(data));
+        }
+        showError(select, data.error);
+    }
+
+    function showError(select, error) {
+        var message = select.runTargetError;
+        if (!message) {
+            message = select.runTargetError = document.createElement("div");
+            message.className = "error";
+            select.parentNode.appendChild(message);
+        }
+        message.innerHTML = "";
+        message.appendChild(document.createTextNode(error || ""));
+        message.style.display = error ? "" : "none";
+    }
+
+    function valueOf(e) {
+        return e ? e.value : "";
+    }
+
+    Behaviour.specify("SELECT.run-target-endpoint", "run-target-endpoint", 0, function (select) {
+        var input = findNearBy(select, "applicationId");
+        var user = findNearBy(select, "../user");
+        var account = findNearBy(select, "../account");
+        var usersAuth = findNearBy(select, "../usersAuth");
+
+        function ownAuth() {
+            return usersAuth && (usersAuth.type != "checkbox" || usersAuth.checked);
+        }
+
+        function refresh() {
+            var url = select.getAttribute("targetDataUrl")
+                + "?user=" + encodeURIComponent(valueOf(user))
+                + "&account=" + encodeURIComponent(valueOf(account))
+                + "&usersAuth=" + encodeURIComponent(ownAuth() ? valueOf(usersAuth) : "");
+            load(url, function (data) {
+                fill(select, input, data);
+            });
+        }
+
+        function reload() {
+            requests = {};
+            refresh();
+        }
+
+        var sources = [user, account, usersAuth];
+        for (var i = 0; i < sources.length; i++) {
+            if (sources[i] && sources[i].addEventListener) {
+                sources[i].addEventListener("change", reload, false);
+                // the account list is itself filled asynchronously
+                sources[i].addEventListener("filled", refresh, false);
+            }
+        }
+        if (input && input.addEventListener) {
+            input.addEventListener("change", refresh, false);
+        }
+        refresh();
+    });
+})();
@@ -32,10 +32,21 @@ import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
 import hudson.ExtensionList;
 import hudson.util.Secret;
 import org.jenkins.plugins.cloudbees.util.CloudbeesServer;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.io.IOUtils;
 import org.jvnet.hudson.test.HudsonTestCase;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /**
  * @author Olivier Lamy
@@ -107,4 +118,45 @@ public abstract class AbstractCloudbeesDeployerPluginTest extends HudsonTestCase
         this.cloudbeesServer.stopServer();
         super.tearDown();
     }
+
+    /**
+     * Returns the CRC of each file entry of an archive, in the form reported by {@code application.checkSums}.
+     */
+    protected static Map<String, Long> checkSums(File war) throws IOException {
+        Map<String, Long> result = new HashMap<String, Long>();
+        ZipFile zip = new ZipFile(war);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    result.put(entry.getName(), entry.getCrc());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the entries of the most recently uploaded archive.
+     */
+    protected List<String> uploadedEntries() throws IOException {
+        for (FileItem item : cloudbeesServer.cloudbessServlet.items) {
+            if (item.getFieldName().equals("archive")) {
+                List<String> names = new ArrayList<String>();
+                ZipInputStream zis = new ZipInputStream(item.getInputStream());
+                try {
+                    for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                        names.add(entry.getName());
+                    }
+                } finally {
+                    IOUtils.closeQuietly(zis);
+                }
+                return names;
+            }
+        }
+        fail("no archive uploaded");
+        return null;
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.deployer;
+
+import com.cloudbees.EndPoints;
+import com.cloudbees.plugins.deployer.impl.run.RunHostImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunTargetImpl;
+import com.cloudbees.plugins.deployer.sources.WildcardPathDeploySource;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests delta deployments against the checksums reported by {@code application.checkSums}.
+ */
+public class CloudbeesDeployDeltaTest extends AbstractCloudbeesDeployerPluginTest {
+
+    public void testOnlyChangedEntriesAreUploaded() throws Exception {
+        File war = createWar();
+        Map<String, Long> checkSums = checkSums(war);
+        checkSums.put("about.html", checkSums.get("about.html") + 1);
+        cloudbeesServer.cloudbessServlet.checkSums = checkSums;
+
+        deploy(war, "delta-changed");
+
+        assertEquals(Collections.singletonList("about.html"), uploadedEntries());
+        assertTrue(incrementalDeployment());
+    }
+
+    public void testUnchangedArchiveIsUploadedInFull() throws Exception {
+        File war = createWar();
+        cloudbeesServer.cloudbessServlet.checkSums = checkSums(war);
+
+        deploy(war, "delta-unchanged");
+
+        assertEquals(Arrays.asList("WEB-INF/", "WEB-INF/web.xml", "index.html", "about.html"), uploadedEntries());
+        assertFalse(incrementalDeployment());
+        // only the plugin's own look at the checksums, the SDK is not asked to compute a delta again
+        assertEquals(1, cloudbeesServer.cloudbessServlet.checkSumsRequests.get());
+    }
+
+    public void testRemovedEntriesUploadTheFullArchive() throws Exception {
+        File war = createWar();
+        Map<String, Long> checkSums = checkSums(war);
+        checkSums.put("removed.html", 1L);
+        cloudbeesServer.cloudbessServlet.checkSums = checkSums;
+
+        deploy(war, "delta-removed");
+
+        assertEquals(Arrays.asList("WEB-INF/", "WEB-INF/web.xml", "index.html", "about.html"), uploadedEntries());
+        assertFalse(incrementalDeployment());
+        // only the plugin's own look at the checksums, the SDK is not asked to compute a delta again
+        assertEquals(1, cloudbeesServer.cloudbessServlet.checkSumsRequests.get());
+    }
+
+    public void testMissingCheckSumsUploadTheFullArchive() throws Exception {
+        File war = createWar();
+
+        deploy(war, "delta-new");
+
+        assertEquals(Arrays.asList("WEB-INF/", "WEB-INF/web.xml", "index.html", "about.html"), uploadedEntries());
+        assertFalse(incrementalDeployment());
+        assertEquals(1, cloudbeesServer.cloudbessServlet.checkSumsRequests.get());
+    }
+
+    /**
+     * Returns whether the most recent upload was sent as an incremental deployment.
+     */
+    private boolean incrementalDeployment() {
+        return Boolean.parseBoolean(cloudbeesServer.cloudbessServlet.fields.get("delta"));
+    }
+
+    private void deploy(final File war, String applicationId) throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("app.war").copyFrom(new FilePath(war));
+                return true;
+            }
+        });
+        p.getBuildersList().add(new DeployBuilder(Collections.singletonList(new RunHostImpl("test@test.test",
+                "test-account", Collections.singletonList(new RunTargetImpl(EndPoints.runAPI(), applicationId,
+                null, null, null, new WildcardPathDeploySource("app.war"), true, null, null, null, false,
+                null))))));
+        buildAndAssertSuccess(p);
+    }
+
+    private File createWar() throws IOException {
+        File war = new File(createTmpDir(), "app.war");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes("UTF-8"));
+            zos.putNextEntry(new ZipEntry("index.html"));
+            zos.write("<html><body>Hello</body></html>".getBytes("UTF-8"));
+            zos.putNextEntry(new ZipEntry("about.html"));
+            zos.write("<html><body>About</body></html>".getBytes("UTF-8"));
+        } finally {
+            zos.close();
+        }
+        return war;
+    }
+}
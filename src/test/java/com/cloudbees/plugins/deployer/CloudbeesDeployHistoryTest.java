@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.deployer;
+
+import com.cloudbees.EndPoints;
+import com.cloudbees.plugins.deployer.impl.run.RunEngineImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunHostImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunTargetImpl;
+import com.cloudbees.plugins.deployer.sources.WildcardPathDeploySource;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests the decisions taken from the history of deployments to an application: skipping unchanged archives and
+ * rolling back to earlier ones.
+ */
+public class CloudbeesDeployHistoryTest extends AbstractCloudbeesDeployerPluginTest {
+
+    public void testUnchangedArchiveIsSkipped() throws Exception {
+        File war = createWar("Hello");
+        FreeStyleProject p = createProject(war, "history-unchanged", null, null, true);
+
+        buildAndAssertSuccess(p);
+        buildAndAssertSuccess(p);
+
+        assertEquals(1, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testUnchangedArchiveIsDeployedUnlessAskedToSkipIt() throws Exception {
+        File war = createWar("Hello");
+        FreeStyleProject p = createProject(war, "history-unchanged-default", null, null, false);
+
+        buildAndAssertSuccess(p);
+        buildAndAssertSuccess(p);
+
+        assertEquals(2, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testChangedArchiveIsDeployed() throws Exception {
+        File war = createWar("Hello");
+        FreeStyleProject p = createProject(war, "history-changed", null, null, true);
+
+        buildAndAssertSuccess(p);
+        writeWar(war, "Hello again");
+        buildAndAssertSuccess(p);
+
+        assertEquals(2, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testChangedParameterIsDeployed() throws Exception {
+        File war = createWar("Hello");
+
+        buildAndAssertSuccess(createProject(war, "history-parameter", null, "one", true));
+        buildAndAssertSuccess(createProject(war, "history-parameter", null, "two", true));
+
+        assertEquals(2, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testChangedEnvironmentIsDeployed() throws Exception {
+        File war = createWar("Hello");
+
+        buildAndAssertSuccess(createProject(war, "history-environment", "run", null, true));
+        buildAndAssertSuccess(createProject(war, "history-environment", "staging", null, true));
+
+        assertEquals(2, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testRedeployingAnEarlierArchiveRollsBackWithADelta() throws Exception {
+        FreeStyleBuild rollback = rollBack("history-rollback", true);
+
+        assertEquals(3, cloudbeesServer.cloudbessServlet.deploys.get());
+        assertLogContains("rolling back with a delta deployment", rollback);
+        // only the entry that differs from version B is sent
+        assertEquals(Collections.singletonList("index.html"), uploadedEntries());
+    }
+
+    public void testRollbackOfATargetWithoutDeltaDeploymentUploadsTheFullArchive() throws Exception {
+        FreeStyleBuild rollback = rollBack("history-rollback-full", false);
+
+        assertEquals(3, cloudbeesServer.cloudbessServlet.deploys.get());
+        assertLogContains("rolling back", rollback);
+        assertFalse(getLog(rollback).contains("rolling back with a delta deployment"));
+        assertEquals(Arrays.asList("WEB-INF/", "WEB-INF/web.xml", "index.html"), uploadedEntries());
+    }
+
+    /**
+     * Deploys version A, then version B, then version A again with rollback detection turned on.
+     */
+    private FreeStyleBuild rollBack(String applicationId, boolean deltaDeployment) throws Exception {
+        File a = createWar("Version A");
+        File b = createWar("Version B");
+        File war = new File(createTmpDir(), "app.war");
+        FreeStyleProject p = createProject(war, new RunTargetImpl(EndPoints.runAPI(), applicationId, null, null,
+                null, new WildcardPathDeploySource("app.war"), deltaDeployment, null, null, null, false, null));
+        boolean detectRollbacks = RunEngineImpl.DETECT_ROLLBACKS;
+        RunEngineImpl.DETECT_ROLLBACKS = true;
+        try {
+            new FilePath(a).copyTo(new FilePath(war));
+            buildAndAssertSuccess(p);
+            new FilePath(b).copyTo(new FilePath(war));
+            buildAndAssertSuccess(p);
+            cloudbeesServer.cloudbessServlet.checkSums = checkSums(b);
+            new FilePath(a).copyTo(new FilePath(war));
+            return buildAndAssertSuccess(p);
+        } finally {
+            RunEngineImpl.DETECT_ROLLBACKS = detectRollbacks;
+        }
+    }
+
+    /**
+     * Creates a project that copies the archive into its workspace and deploys it.
+     */
+    FreeStyleProject createProject(File war, String applicationId, String environment, String parameter,
+                                   boolean skipUnchanged) throws IOException {
+        RunTargetImpl.Setting[] config = parameter == null
+                ? null
+                : new RunTargetImpl.Setting[]{new RunTargetImpl.Setting("parameter", parameter)};
+        return createProject(war, new RunTargetImpl(EndPoints.runAPI(), applicationId, environment, null, config,
+                new WildcardPathDeploySource("app.war"), false, null, null, null, false, null, skipUnchanged));
+    }
+
+    /**
+     * Creates a project that copies the archive into its workspace and deploys it to a target.
+     */
+    FreeStyleProject createProject(final File war, RunTargetImpl target) throws IOException {
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("app.war").copyFrom(new FilePath(war));
+                return true;
+            }
+        });
+        p.getBuildersList().add(new DeployBuilder(Collections.singletonList(new RunHostImpl("test@test.test",
+                "test-account", Collections.singletonList(target)))));
+        return p;
+    }
+
+    File createWar(String content) throws IOException {
+        File war = new File(createTmpDir(), "app.war");
+        writeWar(war, content);
+        return war;
+    }
+
+    static void writeWar(File war, String content) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes("UTF-8"));
+            zos.putNextEntry(new ZipEntry("index.html"));
+            zos.write(("<html><body>" + content + "</body></html>").getBytes("UTF-8"));
+        } finally {
+            zos.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.deployer;
+
+import com.cloudbees.EndPoints;
+import com.cloudbees.plugins.deployer.impl.run.RunHostImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunTargetImpl;
+import com.cloudbees.plugins.deployer.sources.WildcardPathDeploySource;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests the parallel deployment of the targets of a RUN@cloud host.
+ */
+public class CloudbeesDeployParallelTest extends AbstractCloudbeesDeployerPluginTest {
+
+    public void testTargetsAreDeployedInParallel() throws Exception {
+        FreeStyleProject p = createProject(false, target("parallel-1"), target("parallel-2"), target("parallel-3"));
+
+        FreeStyleBuild build = buildAndAssertSuccess(p);
+
+        assertEquals(3, cloudbeesServer.cloudbessServlet.deploys.get());
+        assertLogContains("Deploying 3 targets with up to 2 in parallel", build);
+        assertLogContains("[parallel-2] [cloudbees-deployer] Deployed to application id", build);
+    }
+
+    public void testBestEffortDeploysTheOtherTargets() throws Exception {
+        cloudbeesServer.cloudbessServlet.failingApplications.add("test-account/effort-2");
+        FreeStyleProject p = createProject(true, target("effort-1"), target("effort-2"), target("effort-3"));
+
+        FreeStyleBuild build = p.scheduleBuild2(0).get();
+
+        assertTrue(build.getResult().isWorseThan(Result.SUCCESS));
+        assertEquals(2, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    public void testNoTargetIsStartedWhenOneIsInvalid() throws Exception {
+        FreeStyleProject p = createProject(true, target("invalid-1"),
+                new RunTargetImpl(EndPoints.runAPI(), "invalid-2", null, null, null,
+                        new WildcardPathDeploySource("broken.war"), false, null, null, null, false, null));
+
+        FreeStyleBuild build = p.scheduleBuild2(0).get();
+
+        assertTrue(build.getResult().isWorseThan(Result.SUCCESS));
+        assertEquals(0, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    private static RunTargetImpl target(String applicationId) {
+        return new RunTargetImpl(EndPoints.runAPI(), applicationId, null, null, null,
+                new WildcardPathDeploySource("app.war"), false, null, null, null, false, null);
+    }
+
+    /**
+     * Creates a project that deploys to several applications two at a time. Its workspace holds a valid
+     * {@code app.war} and a {@code broken.war} that is not an archive at all.
+     */
+    private FreeStyleProject createProject(boolean bestEffort, RunTargetImpl... targets) throws IOException {
+        final File war = createWar();
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("app.war").copyFrom(new FilePath(war));
+                build.getWorkspace().child("broken.war").write("not a zip", "UTF-8");
+                return true;
+            }
+        });
+        p.getBuildersList().add(new DeployBuilder(Collections.singletonList(
+                new RunHostImpl("test@test.test", "test-account", Arrays.asList(targets), 2, bestEffort))));
+        return p;
+    }
+
+    private File createWar() throws IOException {
+        File war = new File(createTmpDir(), "app.war");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes("UTF-8"));
+        } finally {
+            zos.close();
+        }
+        return war;
+    }
+}
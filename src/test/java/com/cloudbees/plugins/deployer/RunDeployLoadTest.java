@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer;
+
+import com.cloudbees.EndPoints;
+import com.cloudbees.plugins.deployer.impl.run.DeploymentTimingAction;
+import com.cloudbees.plugins.deployer.impl.run.RunHostImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunTargetImpl;
+import com.cloudbees.plugins.deployer.sources.WildcardPathDeploySource;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Drives concurrent RUN@cloud deployments against a {@link org.jenkins.plugins.cloudbees.util.CloudbeesServer} that
+ * is shaped to behave like a slow, unreliable API and reports the throughput, latency and heap use. Only runs when
+ * {@code -Dcloudbees.deployer.loadTest=true} is given, e.g.
+ * <pre>
+ * mvn test -Dtest=RunDeployLoadTest -Dcloudbees.deployer.loadTest=true -Dcloudbees.deployer.loadTest.deploys=64
+ * </pre>
+ * The other knobs are {@code concurrency}, {@code archiveMegabytes}, {@code latency} (milliseconds),
+ * {@code bandwidth} (kilobytes per second per connection), {@code errorRate} (0 to 1) and {@code activation}
+ * (milliseconds), all prefixed with {@code cloudbees.deployer.loadTest.}.
+ */
+public class RunDeployLoadTest extends AbstractCloudbeesDeployerPluginTest {
+
+    private static final String PREFIX = "cloudbees.deployer.loadTest";
+
+    public void testConcurrentDeployments() throws Exception {
+        if (!Boolean.getBoolean(PREFIX)) {
+            System.out.println("Skipping load test, run with -D" + PREFIX + "=true");
+            return;
+        }
+        int deploys = Integer.getInteger(PREFIX + ".deploys", 32);
+        int concurrency = Integer.getInteger(PREFIX + ".concurrency", 8);
+        int archiveMegabytes = Integer.getInteger(PREFIX + ".archiveMegabytes", 5);
+        cloudbeesServer.cloudbessServlet.responseLatency = Long.getLong(PREFIX + ".latency", 50);
+        cloudbeesServer.cloudbessServlet.bandwidth = Long.getLong(PREFIX + ".bandwidth", 0) * 1024;
+        cloudbeesServer.cloudbessServlet.errorRate = Double.parseDouble(System.getProperty(PREFIX + ".errorRate", "0"));
+        cloudbeesServer.cloudbessServlet.activationTime = Long.getLong(PREFIX + ".activation", 500);
+
+        final File war = createWar(archiveMegabytes);
+        hudson.setNumExecutors(concurrency);
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < deploys; i++) {
+            FreeStyleProject p = createFreeStyleProject("load-" + i);
+            p.getBuildersList().add(new TestBuilder() {
+                @Override
+                public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                        throws InterruptedException, IOException {
+                    build.getWorkspace().child("app.war").copyFrom(new FilePath(war));
+                    return true;
+                }
+            });
+            // a distinct application per project so that no deployment is skipped as unchanged
+            p.getBuildersList().add(new DeployBuilder(Collections.singletonList(new RunHostImpl("test@test.test",
+                    "test-account", Collections.singletonList(new RunTargetImpl(EndPoints.runAPI(), "load-app-" + i,
+                    null, null, null, new WildcardPathDeploySource("app.war"), false, null, null, null, false,
+                    null)), 1, false))));
+            projects.add(p);
+        }
+
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long started = System.nanoTime();
+        List<Future<FreeStyleBuild>> futures = new ArrayList<Future<FreeStyleBuild>>();
+        for (FreeStyleProject p : projects) {
+            futures.add(p.scheduleBuild2(0));
+        }
+        List<Long> latencies = new ArrayList<Long>();
+        long bytes = 0;
+        int failures = 0;
+        for (Future<FreeStyleBuild> future : futures) {
+            FreeStyleBuild build = future.get(30, TimeUnit.MINUTES);
+            if (build.getResult() != Result.SUCCESS) {
+                failures++;
+                continue;
+            }
+            DeploymentTimingAction action = build.getAction(DeploymentTimingAction.class);
+            assertNotNull("deployment timing recorded for " + build, action);
+            latencies.add(action.getTotal().getTotalMillis());
+            bytes += action.getTotal().getBytesSent();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        sampler.interrupt();
+        sampler.join();
+        Collections.sort(latencies);
+
+        System.out.println("RUN@cloud deployment load test");
+        System.out.printf("  deploys:      %d (%d failed) with %d executors in %d ms%n", deploys, failures,
+                concurrency, elapsed);
+        System.out.printf("  throughput:   %.1f deploys/min%n", latencies.size() * 60000.0 / Math.max(1, elapsed));
+        System.out.printf("  upload:       %.2f MB/s%n", bytes * 1000.0 / 1024 / 1024 / Math.max(1, elapsed));
+        System.out.printf("  latency:      p50 %d ms, p95 %d ms, p99 %d ms%n", percentile(latencies, 50),
+                percentile(latencies, 95), percentile(latencies, 99));
+        System.out.printf("  peak heap:    %d MB%n", sampler.peak.get() / 1024 / 1024);
+        assertEquals("successful deployments received", latencies.size(),
+                cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private File createWar(int megabytes) throws IOException {
+        File war = new File(createTmpDir(), "app.war");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes("UTF-8"));
+            // random content does not compress, so the archive is as large as asked
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/payload.bin"));
+            Random random = new Random(0);
+            byte[] buffer = new byte[64 * 1024];
+            for (long remaining = megabytes * 1024L * 1024L; remaining > 0; remaining -= buffer.length) {
+                random.nextBytes(buffer);
+                zos.write(buffer, 0, (int) Math.min(buffer.length, remaining));
+            }
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        return war;
+    }
+
+    private static class HeapSampler extends Thread {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private final AtomicLong peak = new AtomicLong();
+
+        HeapSampler() {
+            super("RunDeployLoadTest:HeapSampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                if (used > peak.get()) {
+                    peak.set(used);
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer;
+
+import com.cloudbees.EndPoints;
+import com.cloudbees.plugins.deployer.impl.run.RunHostImpl;
+import com.cloudbees.plugins.deployer.impl.run.RunTargetImpl;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the end-points behind the RUN@cloud fields of the configuration page.
+ */
+public class RunFormValidationTest extends AbstractCloudbeesDeployerPluginTest {
+
+    public void testKnownApplicationIsAccepted() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+
+        assertEquals("", checkApplicationId(p, "foo1"));
+    }
+
+    public void testUnknownApplicationIsFlagged() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+
+        assertTrue(checkApplicationId(p, "unknown").contains("This application ID was not found"));
+    }
+
+    public void testConcurrentChecksShareOneApplicationList() throws Exception {
+        final FreeStyleProject p = createFreeStyleProject();
+        // keep the first request in flight long enough for the others to arrive
+        cloudbeesServer.cloudbessServlet.responseLatency = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> checks = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                final String applicationId = i % 2 == 0 ? "foo1" : "unknown";
+                checks.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return checkApplicationId(p, applicationId);
+                    }
+                }));
+            }
+            for (int i = 0; i < checks.size(); i++) {
+                String result = checks.get(i).get();
+                assertEquals(result, i % 2 != 0, result.contains("This application ID was not found"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, cloudbeesServer.cloudbessServlet.resourceListRequests.get());
+    }
+
+    public void testTargetData() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+
+        JSONObject data = targetData(p);
+
+        assertFalse(data.toString(), data.has("error"));
+        assertEquals("US", data.getJSONObject("applications").getString("foo1"));
+        assertEquals("US", data.getJSONObject("applications").getString("foo2"));
+        assertEquals(EndPoints.runAPI(), data.getJSONArray("endpoints").getJSONObject(0).getString("value"));
+    }
+
+    public void testTargetDataReportsFailuresWithoutCachingThem() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        cloudbeesServer.cloudbessServlet.failResourceList = true;
+
+        JSONObject data = targetData(p);
+
+        assertTrue(data.toString(),
+                data.getString("error").startsWith("Could not list the applications of test-account"));
+        assertTrue(data.getJSONObject("applications").isEmpty());
+
+        cloudbeesServer.cloudbessServlet.failResourceList = false;
+        data = targetData(p);
+
+        assertFalse(data.toString(), data.has("error"));
+        assertEquals("US", data.getJSONObject("applications").getString("foo1"));
+    }
+
+    private JSONObject targetData(FreeStyleProject p) throws Exception {
+        String url = p.getUrl() + "descriptorByName/" + RunHostImpl.class.getName() + "/targetData"
+                + "?user=" + URLEncoder.encode("test@test.test", "UTF-8") + "&account=test-account";
+        return JSONObject.fromObject(
+                new WebClient().goTo(url, "application/json").getWebResponse().getContentAsString());
+    }
+
+    /**
+     * Returns the text of the validation of an application id of a target of a project.
+     */
+    private String checkApplicationId(FreeStyleProject p, String applicationId) throws Exception {
+        String url = p.getUrl() + "descriptorByName/" + RunTargetImpl.class.getName() + "/checkApplicationId"
+                + "?user=" + URLEncoder.encode("test@test.test", "UTF-8") + "&account=test-account&value="
+                + URLEncoder.encode(applicationId, "UTF-8");
+        return new WebClient().goTo(url).getWebResponse().getContentAsString().replaceAll("<[^>]*>", "").trim();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests for {@link AccountQueryExecutor}.
+ */
+public class AccountQueryExecutorTest extends TestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        super.tearDown();
+    }
+
+    public void testSlowAccountDoesNotHoldUpOtherStripes() throws Exception {
+        AccountQueryExecutor executor = new AccountQueryExecutor(2, 1, 4, 1);
+        String slow = "slow";
+        String other = "other";
+        for (int i = 0; executor.stripeOf(other) == executor.stripeOf(slow); i++) {
+            other = "other-" + i;
+        }
+        Future<String> blocked = executor.submit(slow, blocking("slow"));
+
+        assertEquals("other", executor.submit(other, value("other")).get(5, TimeUnit.SECONDS));
+        assertFalse(blocked.isDone());
+    }
+
+    public void testSaturatedStripeOverflowsToAnotherThread() throws Exception {
+        AccountQueryExecutor executor = new AccountQueryExecutor(1, 1, 1, 1);
+        executor.submit("account", blocking("running"));
+        executor.submit("account", blocking("queued"));
+        assertEquals(1, executor.getQueueDepth());
+
+        Future<String> rejected = executor.submit("account", new Callable<String>() {
+            public String call() throws Exception {
+                return Thread.currentThread().getName();
+            }
+        });
+
+        assertEquals(1, executor.getRejectionCount());
+        String name = rejected.get(5, TimeUnit.SECONDS);
+        assertFalse(Thread.currentThread().getName().equals(name));
+        assertEquals("the result is kept for later waiters", name, rejected.get());
+    }
+
+    public void testOverflowedQueryHonoursTheTimeout() throws Exception {
+        AccountQueryExecutor executor = new AccountQueryExecutor(1, 1, 1, 1);
+        executor.submit("account", blocking("running"));
+        executor.submit("account", blocking("queued"));
+        Future<String> overflowed = executor.submit("account", blocking("overflowed"));
+
+        try {
+            overflowed.get(100, TimeUnit.MILLISECONDS);
+            fail("the query is still running");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        release.countDown();
+        assertEquals("overflowed", overflowed.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testQueryFailsAtOnceWhenTheOverflowIsBusy() throws Exception {
+        AccountQueryExecutor executor = new AccountQueryExecutor(1, 1, 1, 1);
+        executor.submit("account", blocking("running"));
+        executor.submit("account", blocking("queued"));
+        executor.submit("account", blocking("overflowed"));
+
+        Future<String> failed = executor.submit("account", value("failed"));
+
+        assertTrue(failed.isDone());
+        try {
+            failed.get();
+            fail("there is no thread left to run the query");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    public void testRecordsHowLongQueriesWaited() throws Exception {
+        AccountQueryExecutor executor = new AccountQueryExecutor(1, 1, 4, 1);
+        executor.submit("account", value("first")).get(5, TimeUnit.SECONDS);
+        executor.submit("account", value("second")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, executor.getWaitTime().getCount());
+    }
+
+    private Callable<String> blocking(final String value) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                return value;
+            }
+        };
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                return value;
+            }
+        };
+    }
+}
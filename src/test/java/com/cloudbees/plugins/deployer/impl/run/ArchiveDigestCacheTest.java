@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import hudson.Util;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+
+/**
+ * Tests for {@link ArchiveDigestCache}.
+ */
+public class ArchiveDigestCacheTest extends TestCase {
+
+    private File archive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        archive = File.createTempFile("archive-digest-cache", ".war");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (archive != null) {
+            archive.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testDigestIsRecomputedWhenTheArchiveChanges() throws Exception {
+        FileUtils.writeStringToFile(archive, "first");
+        assertEquals(Util.getDigestOf("first"), ArchiveDigestCache.digestOf(archive));
+        assertEquals(Util.getDigestOf("first"), ArchiveDigestCache.digestOf(archive));
+
+        FileUtils.writeStringToFile(archive, "second!");
+        assertEquals(Util.getDigestOf("second!"), ArchiveDigestCache.digestOf(archive));
+    }
+
+    public void testDigestIsRecomputedWhenTheArchiveChangesWithinTheSameModificationTime() throws Exception {
+        FileUtils.writeStringToFile(archive, "first");
+        long lastModified = archive.lastModified();
+        assertEquals(Util.getDigestOf("first"), ArchiveDigestCache.digestOf(archive));
+
+        FileUtils.writeStringToFile(archive, "other");
+        assertTrue(archive.setLastModified(lastModified));
+        assertEquals(Util.getDigestOf("other"), ArchiveDigestCache.digestOf(archive));
+    }
+
+    public void testDigestOfASettledArchiveIsReused() throws Exception {
+        FileUtils.writeStringToFile(archive, "first");
+        long lastModified = System.currentTimeMillis() - 60000;
+        assertTrue(archive.setLastModified(lastModified));
+        assertEquals(Util.getDigestOf("first"), ArchiveDigestCache.digestOf(archive));
+
+        // same size and modification time, so the archive is taken to be unchanged
+        FileUtils.writeStringToFile(archive, "other");
+        assertTrue(archive.setLastModified(lastModified));
+        assertEquals(Util.getDigestOf("first"), ArchiveDigestCache.digestOf(archive));
+    }
+}
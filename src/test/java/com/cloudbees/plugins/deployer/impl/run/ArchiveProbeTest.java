@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import hudson.Util;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for {@link ArchiveProbe}.
+ */
+public class ArchiveProbeTest extends TestCase {
+
+    private File archive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        archive = File.createTempFile("archive-probe", ".war");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (archive != null) {
+            archive.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testValidArchive() throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            out.putNextEntry(new ZipEntry("index.html"));
+            out.write("hello".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        ArchiveProbe probe = ArchiveProbe.probe(archive, true);
+        assertTrue(probe.isValid());
+        assertNull(probe.getProblem());
+        assertEquals(archive.length(), probe.getLength());
+        FileInputStream in = new FileInputStream(archive);
+        try {
+            assertEquals(Util.getDigestOf(in), probe.getDigest());
+        } finally {
+            in.close();
+        }
+        assertTrue(probe.isCurrent(archive));
+        assertNull(ArchiveProbe.probe(archive, false).getDigest());
+    }
+
+    public void testNotAZip() throws Exception {
+        FileUtils.writeStringToFile(archive, "not a zip");
+        ArchiveProbe probe = ArchiveProbe.probe(archive, true);
+        assertFalse(probe.isValid());
+        assertNotNull(probe.getProblem());
+        assertNull(probe.getDigest());
+    }
+
+    public void testMissing() throws Exception {
+        archive.delete();
+        ArchiveProbe probe = ArchiveProbe.probe(archive, true);
+        assertFalse(probe.isValid());
+        assertFalse(probe.isCurrent(archive));
+    }
+}
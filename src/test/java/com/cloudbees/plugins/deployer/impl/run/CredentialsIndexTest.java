@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.cloudbees.AbstractCloudBeesUser;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesAccount;
+import com.cloudbees.plugins.credentials.cloudbees.CloudBeesUser;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.util.Secret;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link CredentialsIndex}.
+ */
+public class CredentialsIndexTest extends HudsonTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CredentialsIndex.invalidate();
+    }
+
+    public void testFindsUsersByName() throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().add(user("alice", "first"));
+        provider.getCredentials().add(user("bob", "second"));
+        provider.getCredentials().add(user("alice", "third"));
+        provider.save();
+
+        assertEquals("second", CredentialsIndex.find((Item) null, ACL.SYSTEM, "bob").getAPIKey());
+        assertEquals("the first match wins", "first",
+                CredentialsIndex.find((Item) null, ACL.SYSTEM, "alice").getAPIKey());
+        assertNull(CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol"));
+        assertNull(CredentialsIndex.find((Item) null, ACL.SYSTEM, null));
+    }
+
+    public void testSavingTheStoreInvalidates() throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().add(user("alice", "first"));
+        provider.save();
+        assertNull(CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol"));
+
+        provider.getCredentials().add(user("carol", "second"));
+        assertNull("still indexed", CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol"));
+        provider.save();
+        assertEquals("second", CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol").getAPIKey());
+    }
+
+    public void testSavingOtherItemGroupsDoesNotInvalidate() throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().add(user("alice", "first"));
+        provider.save();
+        assertNull(CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol"));
+
+        provider.getCredentials().add(user("carol", "second"));
+        hudson.save();
+        createFreeStyleProject().save();
+        assertNull("still indexed", CredentialsIndex.find((Item) null, ACL.SYSTEM, "carol"));
+    }
+
+    public void testListsTheFirstUserOfEachName() throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().add(user("alice", "first"));
+        provider.getCredentials().add(user("bob", "second"));
+        provider.getCredentials().add(user("alice", "third"));
+        provider.save();
+
+        List<String> keys = new ArrayList<String>();
+        for (CloudBeesUser user : CredentialsIndex.list(null, ACL.SYSTEM)) {
+            keys.add(user.getAPIKey());
+        }
+        assertEquals(Arrays.asList("first", "second"), keys);
+    }
+
+    private static CloudBeesUser user(final String name, final String apiKey) {
+        return new AbstractCloudBeesUser() {
+            public String getName() {
+                return name;
+            }
+
+            public String getDisplayName() {
+                return name;
+            }
+
+            public Secret getPassword() {
+                return Secret.fromString("password");
+            }
+
+            public String getAPIKey() {
+                return apiKey;
+            }
+
+            public Secret getAPISecret() {
+                return Secret.fromString("secret");
+            }
+
+            public String getUsername() {
+                return name;
+            }
+
+            public String getUID() {
+                return apiKey;
+            }
+
+            public List<CloudBeesAccount> getAccounts() {
+                return Collections.emptyList();
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Tests for {@link DeploymentDigestIndex}.
+ */
+public class DeploymentDigestIndexTest extends TestCase {
+
+    public void testHistoryIsBounded() throws Exception {
+        String key = DeploymentDigestIndex.key("http://bounded", "acme/app", "run");
+        for (int i = 0; i < DeploymentDigestIndex.HISTORY_SIZE + 5; i++) {
+            DeploymentDigestIndex.get().record(key, record("digest-" + i));
+        }
+
+        List<DeploymentDigestIndex.Record> history = DeploymentDigestIndex.get().history(key);
+        assertEquals(DeploymentDigestIndex.HISTORY_SIZE, history.size());
+        assertEquals("digest-" + (DeploymentDigestIndex.HISTORY_SIZE + 4), history.get(0).getArchiveDigest());
+    }
+
+    public void testRedeploymentMovesToTheFront() throws Exception {
+        String key = DeploymentDigestIndex.key("http://rollback", "acme/app", "run");
+        DeploymentDigestIndex.get().record(key, record("a"));
+        DeploymentDigestIndex.get().record(key, record("b"));
+        DeploymentDigestIndex.get().record(key, record("a"));
+
+        List<DeploymentDigestIndex.Record> history = DeploymentDigestIndex.get().history(key);
+        assertEquals(2, history.size());
+        assertEquals("a", history.get(0).getArchiveDigest());
+        assertEquals("b", history.get(1).getArchiveDigest());
+        assertEquals("a", DeploymentDigestIndex.get().lookup(key).getArchiveDigest());
+    }
+
+    private static DeploymentDigestIndex.Record record(String archiveDigest) {
+        return new DeploymentDigestIndex.Record(archiveDigest, "settings", "acme/app", "http://app.example.com",
+                System.currentTimeMillis(), null);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DeploymentScheduler}.
+ */
+public class DeploymentSchedulerTest extends TestCase {
+
+    private final List<DeploymentScheduler.Slot> held = new ArrayList<DeploymentScheduler.Slot>();
+
+    private final BlockingQueue<String> admitted = new LinkedBlockingQueue<String>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (DeploymentScheduler.Slot slot : held) {
+            DeploymentScheduler.get().release(slot.getId());
+        }
+        super.tearDown();
+    }
+
+    public void testAccountsAreUnlimitedByDefault() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            held.add(DeploymentScheduler.get().acquire("unlimited", "http://unlimited-" + i, "dev", "job-u"));
+        }
+    }
+
+    public void testEndpointLimitHoldsBackFurtherDeployments() throws Exception {
+        fill("limited");
+        Thread waiter = acquireInBackground("limited", "dev", "job-a", "waiter");
+
+        assertNull(admitted.poll(500, TimeUnit.MILLISECONDS));
+
+        DeploymentScheduler.get().release(held.remove(0).getId());
+        assertEquals("waiter", admitted.poll(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    public void testProductionEnvironmentsAreAdmittedFirst() throws Exception {
+        fill("priority");
+        Thread dev = acquireInBackground("priority", "dev", "job-a", "dev");
+        Thread.sleep(100);
+        Thread prod = acquireInBackground("priority", "prod", "job-b", "prod");
+        Thread.sleep(100);
+
+        DeploymentScheduler.get().release(held.remove(0).getId());
+        assertEquals("prod", admitted.poll(10, TimeUnit.SECONDS));
+        DeploymentScheduler.get().release(held.remove(0).getId());
+        assertEquals("dev", admitted.poll(10, TimeUnit.SECONDS));
+        dev.join();
+        prod.join();
+    }
+
+    public void testJobsWithoutWorkAreForgotten() throws Exception {
+        DeploymentScheduler.Slot first = DeploymentScheduler.get().acquire("forget", "http://forget", "dev", "job-f");
+        DeploymentScheduler.Slot second = DeploymentScheduler.get().acquire("forget", "http://forget", "dev", "job-f");
+        assertTrue(DeploymentScheduler.get().isTracking("job-f"));
+
+        DeploymentScheduler.get().release(first.getId());
+        assertTrue(DeploymentScheduler.get().isTracking("job-f"));
+
+        DeploymentScheduler.get().release(second.getId());
+        assertFalse(DeploymentScheduler.get().isTracking("job-f"));
+    }
+
+    /**
+     * Takes every slot available to the end-point of the account with the default limit of 8.
+     */
+    private void fill(String account) throws InterruptedException {
+        for (int i = 0; i < 8; i++) {
+            held.add(DeploymentScheduler.get().acquire(account, "http://" + account, "dev", "filler"));
+        }
+    }
+
+    private Thread acquireInBackground(final String account, final String environment, final String job,
+                                       final String name) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    DeploymentScheduler.Slot slot =
+                            DeploymentScheduler.get().acquire(account, "http://" + account, environment, job);
+                    synchronized (held) {
+                        held.add(slot);
+                    }
+                    admitted.add(name);
+                } catch (InterruptedException e) {
+                    // test is over
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
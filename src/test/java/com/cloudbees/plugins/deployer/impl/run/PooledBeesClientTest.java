@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import com.cloudbees.api.ApplicationDeployArgs;
+import com.cloudbees.api.BeesClient;
+import junit.framework.TestCase;
+import org.apache.commons.fileupload.FileItem;
+import org.jenkins.plugins.cloudbees.util.CloudbeesServer;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Tests for {@link PooledBeesClient}.
+ */
+public class PooledBeesClientTest extends TestCase {
+
+    private static final long ONE_MB = 1024L * 1024L;
+
+    private CloudbeesServer cloudbeesServer = new CloudbeesServer();
+
+    private File archive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cloudbeesServer.startServer();
+        archive = File.createTempFile("pooled-bees-client", ".war");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cloudbeesServer.stopServer();
+        if (archive != null) {
+            archive.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testUploadHeapIsIndependentOfArchiveSize() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return; // cannot measure allocations on this JVM
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        long threadId = Thread.currentThread().getId();
+
+        BeesClient client = BeesClientRegistry.get("http://localhost:" + cloudbeesServer.getPort(),
+                "Testing121212Testing", "So Very Secret");
+        // warm up the client so that class loading is not counted
+        deploy(client, ONE_MB);
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        deploy(client, 16 * ONE_MB);
+        long small = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        before = allocations.getThreadAllocatedBytes(threadId);
+        deploy(client, 64 * ONE_MB);
+        long large = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Allocated " + small + " bytes to upload 16MB and " + large + " bytes to upload 64MB",
+                large - small < 2 * ONE_MB);
+    }
+
+    public void testUploadIsRetriedAfterConnectionFailure() throws Exception {
+        cloudbeesServer.cloudbessServlet.failUploads.set(2);
+        BeesClient client = BeesClientRegistry.get("http://localhost:" + cloudbeesServer.getPort(),
+                "Testing121212Testing", "So Very Secret");
+
+        // large enough that the body cannot fit in the socket buffers before the server drops the connection
+        deploy(client, 16 * ONE_MB);
+
+        assertEquals(3, cloudbeesServer.cloudbessServlet.uploadAttempts.get());
+    }
+
+    public void testUploadIsNotRetriedOnceTheBodyHasBeenSent() throws Exception {
+        cloudbeesServer.cloudbessServlet.dropAfterBody.set(1);
+        BeesClient client = BeesClientRegistry.get("http://localhost:" + cloudbeesServer.getPort(),
+                "Testing121212Testing", "So Very Secret");
+
+        try {
+            deploy(client, ONE_MB);
+            fail("the lost response should be reported");
+        } catch (Exception e) {
+            // expected
+        }
+
+        assertEquals(1, cloudbeesServer.cloudbessServlet.uploadAttempts.get());
+        assertEquals(1, cloudbeesServer.cloudbessServlet.deploys.get());
+    }
+
+    private void deploy(BeesClient client, long length) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+        client.applicationDeployArchive(new ApplicationDeployArgs.Builder("test-account/test-app")
+                .environment("run")
+                .deployPackage(archive, "war")
+                .build());
+        boolean found = false;
+        for (FileItem item : cloudbeesServer.cloudbessServlet.items) {
+            if (item.getFieldName().equals("archive")) {
+                assertEquals(length, item.getSize());
+                found = true;
+            }
+        }
+        assertTrue("archive uploaded", found);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link UploadBandwidthGovernor}.
+ */
+public class UploadBandwidthGovernorTest extends TestCase {
+
+    private static final long RATE = 64 * 1024;
+
+    private final FakeClock clock = new FakeClock();
+
+    public void testSlicesLargerThanTheRateSustainTheRate() throws Exception {
+        UploadBandwidthGovernor.Bucket bucket = new UploadBandwidthGovernor.Bucket(RATE, clock);
+        long slice = 2 * RATE;
+        int slices = 4;
+
+        for (int i = 0; i < slices; i++) {
+            bucket.acquire(slice);
+        }
+
+        // the bucket starts full, so the first second's worth is free
+        assertEquals(TimeUnit.SECONDS.toNanos((slices * slice - RATE) / RATE), clock.nanoTime());
+    }
+
+    public void testIdleBucketRefillsToOneSecond() throws Exception {
+        UploadBandwidthGovernor.Bucket bucket = new UploadBandwidthGovernor.Bucket(RATE, clock);
+        assertEquals(0, bucket.acquire(RATE));
+        clock.advance(TimeUnit.MILLISECONDS.toNanos(1500));
+
+        // a full bucket pays for one second's worth without waiting, but not for more
+        assertEquals(0, bucket.acquire(RATE));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), bucket.acquire(RATE / 4));
+    }
+
+    public void testWaitingUploadDoesNotHoldTheLock() throws Exception {
+        final CountDownLatch sleeping = new CountDownLatch(1);
+        final CountDownLatch wakeUp = new CountDownLatch(1);
+        final AtomicInteger sleeps = new AtomicInteger();
+        final UploadBandwidthGovernor.Bucket bucket = new UploadBandwidthGovernor.Bucket(RATE, new FakeClock() {
+            @Override
+            public void sleep(long nanos) throws InterruptedException {
+                if (sleeps.getAndIncrement() == 0) {
+                    sleeping.countDown();
+                    wakeUp.await();
+                } else {
+                    super.sleep(nanos);
+                }
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return bucket.acquire(2 * RATE);
+                }
+            });
+            assertTrue(sleeping.await(5, TimeUnit.SECONDS));
+
+            Future<Long> next = executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return bucket.acquire(RATE / 2);
+                }
+            });
+
+            // the second upload also waits for the debt of the first, so it cannot overtake
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), next.get(5, TimeUnit.SECONDS).longValue());
+        } finally {
+            wakeUp.countDown();
+            executor.shutdown();
+        }
+    }
+
+    public void testEndpointLimitsAreKeyedByHost() throws Exception {
+        String property = UploadBandwidthGovernor.class.getName() + ".ENDPOINT_LIMIT.api.example.com";
+        System.setProperty(property, "1024");
+        try {
+            assertEquals("api.example.com", UploadBandwidthGovernor.hostOf("https://api.example.com/api"));
+            assertEquals("not a url", UploadBandwidthGovernor.hostOf("not a url"));
+            assertEquals(1024, UploadBandwidthGovernor.endpointLimit("api.example.com"));
+            assertEquals(0, UploadBandwidthGovernor.endpointLimit("api.example.org"));
+            assertTrue(UploadBandwidthGovernor.open("https://api.example.com/api").isLimited());
+            assertFalse(UploadBandwidthGovernor.open("https://api.example.org/api").isLimited());
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    /**
+     * A clock that only moves when told to or when slept on.
+     */
+    private static class FakeClock implements UploadBandwidthGovernor.Clock {
+
+        private final AtomicLong now = new AtomicLong();
+
+        public long nanoTime() {
+            return now.get();
+        }
+
+        public void sleep(long nanos) throws InterruptedException {
+            advance(nanos);
+        }
+
+        void advance(long nanos) {
+            now.addAndGet(nanos);
+        }
+    }
+}
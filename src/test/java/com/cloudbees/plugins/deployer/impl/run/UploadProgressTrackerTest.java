@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link UploadProgressTracker}.
+ */
+public class UploadProgressTrackerTest extends TestCase {
+
+    public void testReportsEveryFivePercentAndOnceOnCompletion() throws Exception {
+        final List<UploadStatistics> progress = new ArrayList<UploadStatistics>();
+        final List<UploadStatistics> completed = new ArrayList<UploadStatistics>();
+        UploadProgressTracker tracker = new Tracker();
+        tracker.addObserver(new UploadProgressTracker.Observer() {
+            public void uploadProgress(UploadStatistics statistics) {
+                progress.add(statistics);
+            }
+
+            public void uploadCompleted(UploadStatistics statistics) {
+                completed.add(statistics);
+            }
+        });
+
+        long total = 64L * 1024 * 1024;
+        for (long written = 8192; written <= total; written += 8192) {
+            tracker.handleBytesWritten(8192, written, total);
+        }
+
+        assertTrue("progress reports: " + progress.size(), progress.size() >= 19 && progress.size() <= 20);
+        assertEquals(1, completed.size());
+        assertEquals(total, completed.get(0).getBytesWritten());
+        assertEquals(total, tracker.getStatistics().getBytesWritten());
+    }
+
+    private static class Tracker extends UploadProgressTracker {
+        @Override
+        protected void reportProgress(UploadStatistics statistics) {
+        }
+
+        @Override
+        protected void reportCompleted(UploadStatistics statistics) {
+        }
+
+        public void handleRetry(int attempt, long delay, Exception cause) {
+        }
+
+        public void handleStalled(int attempt, long idle, long window) {
+        }
+
+        public void handleThrottled(long throttled) {
+        }
+    }
+}
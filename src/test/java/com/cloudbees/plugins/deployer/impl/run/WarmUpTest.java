@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link WarmUp}.
+ */
+public class WarmUpTest extends TestCase {
+
+    public void testResolve() throws Exception {
+        assertEquals("http://app.example.com/", WarmUp.resolve("http://app.example.com", "/"));
+        assertEquals("http://app.example.com/status", WarmUp.resolve("http://app.example.com/", "status"));
+        assertEquals("http://app.example.com/status", WarmUp.resolve("http://app.example.com/", "/status"));
+        assertEquals("https://app.example.com/status",
+                WarmUp.resolve("http://app.example.com", "https://app.example.com/status"));
+    }
+
+    public void testResolveStaysOnTheHostOfTheApplication() throws Exception {
+        assertNull(WarmUp.resolve("http://app.example.com", "https://other.example.com/"));
+        assertNull(WarmUp.resolve("http://app.example.com", "http://169.254.169.254/latest/meta-data/"));
+        assertNull(WarmUp.resolve("http://app.example.com", "http://app.example.com@internal.example.com/"));
+        assertNull(WarmUp.resolve("http://app.example.com", "http://app.example.com:8080/"));
+        assertEquals("http://app.example.com/@internal.example.com",
+                WarmUp.resolve("http://app.example.com", "@internal.example.com"));
+    }
+
+    public void testOnlySuccessfulAndRedirectStatusesAreReady() throws Exception {
+        assertTrue(WarmUp.isReady(200));
+        assertTrue(WarmUp.isReady(204));
+        assertTrue(WarmUp.isReady(302));
+        assertFalse(WarmUp.isReady(-1));
+        assertFalse(WarmUp.isReady(404));
+        assertFalse(WarmUp.isReady(500));
+        assertFalse(WarmUp.isReady(503));
+    }
+
+    public void testResultPercentiles() throws Exception {
+        List<Long> latencies = new ArrayList<Long>();
+        for (long i = 100; i >= 1; i--) {
+            latencies.add(i);
+        }
+        WarmUpAction.Result result = new WarmUpAction.Result("app", "http://app.example.com", true, 1500,
+                latencies, 2);
+        assertEquals(100, result.getRequests());
+        assertEquals(2, result.getFailures());
+        assertEquals(50, result.getP50());
+        assertEquals(95, result.getP95());
+        assertEquals(99, result.getP99());
+        assertEquals(100, result.getMax());
+    }
+
+    public void testResultWithoutRequests() throws Exception {
+        WarmUpAction.Result result = new WarmUpAction.Result("app", "http://app.example.com", false, 300000,
+                Arrays.<Long>asList(), 0);
+        assertFalse(result.isReady());
+        assertEquals(0, result.getRequests());
+        assertEquals(0, result.getP99());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011-2014, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.deployer.impl.run;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for {@link ZipIntegrityCheck}.
+ */
+public class ZipIntegrityCheckTest extends TestCase {
+
+    private File archive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        archive = File.createTempFile("zip-integrity-check", ".war");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (archive != null) {
+            archive.delete();
+        }
+        super.tearDown();
+    }
+
+    private void write(String... names) throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (String name : names) {
+                out.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    for (int i = 0; i < 1000; i++) {
+                        out.write(("content of " + name + " " + i + "\n").getBytes("UTF-8"));
+                    }
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testSoundWar() throws Exception {
+        write("index.html", "WEB-INF/", "WEB-INF/web.xml");
+        assertNull(ZipIntegrityCheck.check(archive));
+    }
+
+    public void testWarWithoutWebInf() throws Exception {
+        write("index.html", "css/", "css/site.css");
+        assertNull(ZipIntegrityCheck.check(archive));
+    }
+
+    public void testOtherArchives() throws Exception {
+        archive.delete();
+        archive = File.createTempFile("zip-integrity-check", ".zip");
+        write("index.html");
+        assertNull(ZipIntegrityCheck.check(archive));
+    }
+
+    public void testTruncated() throws Exception {
+        write("index.html", "WEB-INF/web.xml");
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.setLength(file.length() / 2);
+        } finally {
+            file.close();
+        }
+        assertNotNull(ZipIntegrityCheck.check(archive));
+    }
+
+    public void testCorruptLocalHeader() throws Exception {
+        write("index.html", "WEB-INF/web.xml");
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.seek(0);
+            file.write(new byte[]{0, 0, 0, 0});
+        } finally {
+            file.close();
+        }
+        String problem = ZipIntegrityCheck.check(archive);
+        assertNotNull(problem);
+        assertTrue(problem, problem.contains("local header"));
+    }
+
+    public void testNotAZip() throws Exception {
+        FileUtils.writeStringToFile(archive, "this is not a zip archive, it is just some text");
+        assertNotNull(ZipIntegrityCheck.check(archive));
+    }
+
+    public void testEmpty() throws Exception {
+        write();
+        assertNotNull(ZipIntegrityCheck.check(archive));
+    }
+}
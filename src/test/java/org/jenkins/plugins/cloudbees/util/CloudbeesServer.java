@@ -29,7 +29,9 @@ import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.servlet.ServletRequestContext;
 import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.HttpConnection;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.servlet.Context;
 import org.mortbay.jetty.servlet.ServletHolder;
@@ -38,8 +40,20 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Olivier Lamy
@@ -79,8 +93,87 @@ public class CloudbeesServer {
 
         public List<FileItem> items;
 
+        /**
+         * The number of upcoming uploads to fail by dropping the connection part way through the request body.
+         */
+        public final AtomicInteger failUploads = new AtomicInteger();
+
+        /**
+         * The number of upcoming uploads to deploy but then fail by dropping the connection instead of responding.
+         */
+        public final AtomicInteger dropAfterBody = new AtomicInteger();
+
+        /**
+         * The number of uploads that have been attempted.
+         */
+        public final AtomicInteger uploadAttempts = new AtomicInteger();
+
+        /**
+         * The number of deployments that have completed successfully.
+         */
+        public final AtomicInteger deploys = new AtomicInteger();
+
+        /**
+         * The delay before answering any request, in milliseconds.
+         */
+        public volatile long responseLatency;
+
+        /**
+         * The maximum rate at which each upload is read, in bytes per second, or {@code 0} for no limit.
+         */
+        public volatile long bandwidth;
+
+        /**
+         * The fraction of uploads, between {@code 0} and {@code 1}, that are answered with a server error once
+         * their body has been read.
+         */
+        public volatile double errorRate;
+
+        /**
+         * How long the server takes to activate an uploaded archive before answering, in milliseconds.
+         */
+        public volatile long activationTime;
+
+        /**
+         * The CRC of each entry of the currently deployed archive, as reported by {@code application.checkSums}.
+         */
+        public volatile Map<String, Long> checkSums = Collections.emptyMap();
+
+        /**
+         * The form fields of the most recent upload.
+         */
+        public volatile Map<String, String> fields = Collections.emptyMap();
+
+        /**
+         * The number of {@code application.checkSums} requests that have been answered.
+         */
+        public final AtomicInteger checkSumsRequests = new AtomicInteger();
+
+        /**
+         * The applications whose uploads are answered with a server error once their body has been read.
+         */
+        public final Set<String> failingApplications = new CopyOnWriteArraySet<String>();
+
+        /**
+         * The applications listed by {@code service.resource.list}, without the account prefix.
+         */
+        public final Set<String> applications = new CopyOnWriteArraySet<String>(Arrays.asList("foo1", "foo2"));
+
+        /**
+         * Whether {@code service.resource.list} requests are answered with a server error.
+         */
+        public volatile boolean failResourceList;
+
+        /**
+         * The number of {@code service.resource.list} requests that have been answered.
+         */
+        public final AtomicInteger resourceListRequests = new AtomicInteger();
+
+        private final Random random = new Random();
+
         @Override
         protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            pause(responseLatency);
             //TODO take care of &format=xml/json
             if (req.getMethod().equalsIgnoreCase("get")) {
                 String action = req.getParameter("action");
@@ -90,7 +183,20 @@ public class CloudbeesServer {
                     return;
                 }
                 if (action.equals("application.checkSums")) {
-                    String response = XmlResponseGenerator.applicationCheckSumsResponse();
+                    checkSumsRequests.incrementAndGet();
+                    String response = XmlResponseGenerator.applicationCheckSumsResponse(checkSums);
+                    resp.getWriter().print(response);
+                    return;
+                }
+                if (action.equals("service.resource.list")) {
+                    resourceListRequests.incrementAndGet();
+                    if (failResourceList) {
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        resp.getWriter().print(XmlResponseGenerator.errorResponse("Injected failure"));
+                        return;
+                    }
+                    String response =
+                            XmlResponseGenerator.serviceResourceListResponse(req.getParameter("account"), applications);
                     resp.getWriter().print(response);
                     return;
                 }
@@ -102,19 +208,125 @@ public class CloudbeesServer {
             } else if (req.getMethod().equalsIgnoreCase("post")) {
                 boolean isMultipart = ServletFileUpload.isMultipartContent(req);
                 if (isMultipart) {
+                    uploadAttempts.incrementAndGet();
+                    if (takeOne(failUploads)) {
+                        // read a little of the body so the client is mid-upload, then drop the connection
+                        req.getInputStream().read(new byte[8192]);
+                        HttpConnection.getCurrentConnection().getEndPoint().close();
+                        return;
+                    }
                     FileItemFactory factory = new DiskFileItemFactory();
                     ServletFileUpload upload = new ServletFileUpload(factory);
+                    final long bandwidth = this.bandwidth;
                     try {
-                        items = upload.parseRequest(req);
+                        items = upload.parseRequest(new ServletRequestContext(req) {
+                            @Override
+                            public InputStream getInputStream() throws IOException {
+                                InputStream in = super.getInputStream();
+                                return bandwidth > 0 ? new ThrottledInputStream(in, bandwidth) : in;
+                            }
+                        });
                     } catch (FileUploadException e) {
                         throw new ServletException(e.getMessage(), e);
                     }
+                    Map<String, String> fields = new HashMap<String, String>();
+                    for (FileItem item : items) {
+                        if (item.isFormField()) {
+                            fields.put(item.getFieldName(), item.getString());
+                        }
+                    }
+                    this.fields = fields;
+                    pause(activationTime);
+                    if (random.nextDouble() < errorRate || failingApplications.contains(field(items, "app_id"))) {
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        resp.getWriter().print(XmlResponseGenerator.errorResponse("Injected failure"));
+                        return;
+                    }
+                    deploys.incrementAndGet();
+                    if (takeOne(dropAfterBody)) {
+                        HttpConnection.getCurrentConnection().getEndPoint().close();
+                        return;
+                    }
                     String response = XmlResponseGenerator.applicationDeployArchiveResponse();
                     resp.getWriter().print(response);
                 }
                 return;
             }
         }
+
+        private static String field(List<FileItem> items, String name) {
+            for (FileItem item : items) {
+                if (item.isFormField() && item.getFieldName().equals(name)) {
+                    return item.getString();
+                }
+            }
+            return null;
+        }
+
+        private static void pause(long millis) throws IOException {
+            if (millis > 0) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        private static boolean takeOne(AtomicInteger counter) {
+            for (int value = counter.get(); value > 0; value = counter.get()) {
+                if (counter.compareAndSet(value, value - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads no faster than a fixed rate, emulating a per-connection bandwidth cap.
+     */
+    static class ThrottledInputStream extends FilterInputStream {
+
+        private final long bytesPerSecond;
+
+        private final long started = System.nanoTime();
+
+        private long read;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle(1);
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // keep the chunks small so that the rate is smooth
+            int count = super.read(b, off, (int) Math.min(len, Math.max(1, bytesPerSecond / 10)));
+            if (count > 0) {
+                throttle(count);
+            }
+            return count;
+        }
+
+        private void throttle(int count) throws IOException {
+            read += count;
+            long due = TimeUnit.SECONDS.toNanos(1) * read / bytesPerSecond;
+            long wait = TimeUnit.NANOSECONDS.toMillis(due - (System.nanoTime() - started));
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
     }
 
 }
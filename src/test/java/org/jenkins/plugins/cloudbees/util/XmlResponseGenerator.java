@@ -29,10 +29,16 @@ import com.cloudbees.api.ApplicationDeployArchiveResponse;
 import com.cloudbees.api.ApplicationInfo;
 import com.cloudbees.api.ApplicationListResponse;
 import com.cloudbees.api.SayHelloResponse;
+import com.cloudbees.api.ServiceResourceInfo;
+import com.cloudbees.api.ServiceResourceListResponse;
 import com.thoughtworks.xstream.XStream;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Olivier Lamy
@@ -46,6 +52,8 @@ public class XmlResponseGenerator {
         xStream.alias("ApplicationInfo", ApplicationInfo.class);
         xStream.alias("ApplicationCheckSumsResponse", ApplicationCheckSumsResponse.class);
         xStream.alias("ApplicationDeployArchiveResponse", ApplicationDeployArchiveResponse.class);
+        xStream.alias("ServiceResourceListResponse", ServiceResourceListResponse.class);
+        xStream.alias("ServiceResourceInfo", ServiceResourceInfo.class);
     }
 
     public static String applicationListResponse() {
@@ -60,8 +68,12 @@ public class XmlResponseGenerator {
     }
 
     public static String applicationCheckSumsResponse() {
+        return applicationCheckSumsResponse(new HashMap<String, Long>(0));
+    }
+
+    public static String applicationCheckSumsResponse(Map<String, Long> checkSums) {
         ApplicationCheckSumsResponse applicationCheckSumsResponse = new ApplicationCheckSumsResponse();
-        applicationCheckSumsResponse.setCheckSums(new HashMap<String, Long>(0));
+        applicationCheckSumsResponse.setCheckSums(new HashMap<String, Long>(checkSums));
         return xStream.toXML(applicationCheckSumsResponse);
     }
 
@@ -70,6 +82,22 @@ public class XmlResponseGenerator {
         return xStream.toXML(response);
     }
 
+    public static String serviceResourceListResponse(String account, Collection<String> applications) {
+        List<ServiceResourceInfo> resources = new ArrayList<ServiceResourceInfo>();
+        for (String application : applications) {
+            ServiceResourceInfo resource = new ServiceResourceInfo();
+            resource.setId(account + "/" + application);
+            resources.add(resource);
+        }
+        ServiceResourceListResponse response = new ServiceResourceListResponse();
+        response.setResources(resources);
+        return xStream.toXML(response);
+    }
+
+    public static String errorResponse(String message) {
+        return "<error><message>" + message + "</message><errorCode>InternalError</errorCode></error>";
+    }
+
     public static String sayHelloResponse() {
         SayHelloResponse sayHelloResponse = new SayHelloResponse();
         return xStream.toXML(sayHelloResponse);